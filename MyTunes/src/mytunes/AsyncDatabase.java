@@ -0,0 +1,97 @@
+package mytunes;
+
+import javax.swing.SwingUtilities;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Runs Database calls on a dedicated I/O thread so a slow MySQL never freezes the window. Calls
+// run one at a time in the order they were made, so a read issued after a write sees the write.
+// The returned futures complete on the event dispatch thread: callbacks attached with thenAccept,
+// thenRun and the like may update Swing components directly. Failures are logged here as well, so
+// callers only handle the ones they can do something about.
+public class AsyncDatabase implements AutoCloseable {
+    private static final Executor EDT = SwingUtilities::invokeLater;
+
+    private final Database database;
+    private final ExecutorService ioExecutor;
+
+    public AsyncDatabase(Database database) {
+        this.database = database;
+        this.ioExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Database-IO");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    // Runs any work that touches the database, e.g. a LibraryCache write-through, on the I/O thread
+    public <T> CompletableFuture<T> supply(Function<Database, T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            try {
+                T value = call.apply(database);
+                EDT.execute(() -> result.complete(value));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                EDT.execute(() -> result.completeExceptionally(e));
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<Void> run(Consumer<Database> call) {
+        return supply(db -> {
+            call.accept(db);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<String>> getAllPlaylists() {
+        return supply(Database::getAllPlaylists);
+    }
+
+    public CompletableFuture<List<Song>> getSongsFromPlaylist(String playlistName) {
+        return supply(db -> db.getSongsFromPlaylist(playlistName));
+    }
+
+    public CompletableFuture<Void> createPlaylist(String name) {
+        return run(db -> db.createPlaylist(name));
+    }
+
+    public CompletableFuture<Void> deletePlaylist(String playlistName) {
+        return run(db -> db.deletePlaylist(playlistName));
+    }
+
+    public CompletableFuture<Void> addSongToPlaylist(Song song, String playlistName) {
+        return run(db -> db.addSongToPlaylist(song, playlistName));
+    }
+
+    public CompletableFuture<Void> addSongsToPlaylist(List<Song> songs, String playlistName) {
+        return run(db -> db.addSongsToPlaylist(songs, playlistName));
+    }
+
+    public CompletableFuture<Void> removeSongFromPlaylist(Song song, String playlistName) {
+        return run(db -> db.removeSongFromPlaylist(song, playlistName));
+    }
+
+    // Lets queued calls finish, waiting a few seconds at most
+    @Override
+    public void close() {
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
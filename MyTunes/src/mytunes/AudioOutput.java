@@ -0,0 +1,354 @@
+package mytunes;
+
+import javax.sound.sampled.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The one place audio reaches the sound card. Each AudioFormat gets a single SourceDataLine, opened
+// on first use and kept open until close(), with a writer thread that mixes every playing Channel of
+// that format into it. Players write decoded 16-bit PCM into their Channel's ring buffer; the writer
+// pulls from those buffers, applies each channel's gain in software and writes the result to the
+// line. All buffers are allocated up front, so nothing is allocated per chunk or per sample.
+public class AudioOutput implements AutoCloseable {
+    private static final int LINE_BUFFER_MILLIS = 100;
+    private static final int CHUNK_MILLIS = 20;
+
+    private static final AudioOutput shared = new AudioOutput();
+
+    public interface UnderrunListener {
+        // Called on the writer thread when a playing channel ran out of audio
+        void underrun(Channel channel);
+    }
+
+    // Opens the line for a format; tests pass one that needs no sound card
+    interface LineFactory {
+        SourceDataLine open(AudioFormat format, int bufferBytes) throws LineUnavailableException;
+    }
+
+    private final LineFactory lineFactory;
+    private final Map<String, Output> outputs = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<UnderrunListener> underrunListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong underrunCount = new AtomicLong();
+    private volatile boolean closed;
+
+    public AudioOutput() {
+        this(AudioOutput::openSystemLine);
+    }
+
+    AudioOutput(LineFactory lineFactory) {
+        this.lineFactory = lineFactory;
+    }
+
+    private static SourceDataLine openSystemLine(AudioFormat format, int bufferBytes) throws LineUnavailableException {
+        SourceDataLine line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+        line.open(format, bufferBytes);
+        return line;
+    }
+
+    // The engine used by every player in the application
+    public static AudioOutput getShared() {
+        return shared;
+    }
+
+    // The buffer belongs to the caller's decoder; the engine only reads from it
+    public Channel openChannel(PcmRingBuffer buffer) {
+        return new Channel(buffer);
+    }
+
+    public void addUnderrunListener(UnderrunListener listener) {
+        underrunListeners.add(listener);
+    }
+
+    public void removeUnderrunListener(UnderrunListener listener) {
+        underrunListeners.remove(listener);
+    }
+
+    public long getUnderrunCount() {
+        return underrunCount.get();
+    }
+
+    public int getOpenLineCount() {
+        return outputs.size();
+    }
+
+    private Output outputFor(AudioFormat format) throws LineUnavailableException {
+        String key = format.getEncoding() + "/" + format.getSampleRate() + "/" + format.getSampleSizeInBits() + "/"
+                + format.getChannels() + "/" + format.isBigEndian();
+        synchronized (outputs) {
+            if (closed) {
+                throw new IllegalStateException("Audio output is closed");
+            }
+            Output output = outputs.get(key);
+            if (output == null) {
+                output = new Output(format);
+                outputs.put(key, output);
+            }
+            return output;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (outputs) {
+            closed = true;
+            for (Output output : outputs.values()) {
+                output.close();
+            }
+            outputs.clear();
+        }
+    }
+
+    // One player's connection to the engine. The player writes PCM in the channel's format; the
+    // writer thread of the matching line consumes it while the channel is playing.
+    public final class Channel implements AutoCloseable {
+        private final PcmRingBuffer buffer;
+        private volatile Output output;
+        private volatile float gain = 1f;
+        private volatile boolean playing;
+        private volatile boolean endOfStream; // an empty buffer is expected, not an underrun
+        private volatile boolean fed;         // data offered since the last start() or flush()
+        private volatile boolean closed;
+        private boolean starved;               // touched only by the writer thread
+        private final AtomicLong underruns = new AtomicLong();
+
+        private Channel(PcmRingBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        // Moves the channel to the line for this format; buffered audio should be drained first
+        public void setFormat(AudioFormat format) throws LineUnavailableException {
+            Output current = output;
+            if (current != null && current.format.matches(format)) {
+                return;
+            }
+            Output next = outputFor(format);
+            if (current != null) {
+                current.channels.remove(this);
+            }
+            output = next;
+            next.channels.add(this);
+            next.wakeUp();
+        }
+
+        public AudioFormat getFormat() {
+            Output current = output;
+            return current != null ? current.format : null;
+        }
+
+        // Buffers as much of the data as fits without blocking; returns the number of bytes taken
+        public int offer(byte[] data, int offset, int length) {
+            if (closed) {
+                return 0;
+            }
+            endOfStream = false;
+            int written = buffer.write(data, offset, length);
+            if (written > 0) {
+                fed = true;
+                Output current = output;
+                if (current != null) {
+                    current.wakeUp();
+                }
+            }
+            return written;
+        }
+
+        // Discards audio not yet sent to the line
+        public void flush() {
+            fed = false;
+            buffer.clear();
+        }
+
+        // Until the player offers audio again, an empty buffer is the decoder starting up, not an underrun
+        public void start() {
+            fed = false;
+            playing = true;
+            Output current = output;
+            if (current != null) {
+                current.wakeUp();
+            }
+        }
+
+        // The writer stops taking audio from this channel; what it holds is kept for start()
+        public void pause() {
+            playing = false;
+        }
+
+        // No more audio follows for now, so running dry is not reported as an underrun
+        public void markEndOfStream() {
+            endOfStream = true;
+        }
+
+        // True once the writer has taken everything offered so far
+        public boolean isEmpty() {
+            return buffer.available() == 0;
+        }
+
+        // Milliseconds of audio written by the player that has not been heard yet. The line part
+        // is shared with the other channels on it, so this is an upper bound.
+        public long getBufferedMillis() {
+            Output current = output;
+            if (current == null) {
+                return 0;
+            }
+            return current.bytesToMillis(buffer.available()) + current.bufferedMillis();
+        }
+
+        // 0..100; squared so the slider feels roughly even to the ear
+        public void setVolume(int volume) {
+            float linear = Math.max(0, Math.min(100, volume)) / 100f;
+            gain = linear * linear;
+        }
+
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        public long getUnderrunCount() {
+            return underruns.get();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            playing = false;
+            buffer.clear();
+            Output current = output;
+            output = null;
+            if (current != null) {
+                current.channels.remove(this);
+            }
+        }
+    }
+
+    // A SourceDataLine and the thread that mixes the channels of its format into it
+    private final class Output implements Runnable {
+        final AudioFormat format;
+        final SourceDataLine line;
+        final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>();
+        private final Thread thread;
+        private final byte[] chunk;
+        private final byte[] out;
+        private final int[] mix;
+        private final float bytesPerMilli;
+        private volatile boolean running = true;
+
+        Output(AudioFormat format) throws LineUnavailableException {
+            this.format = format;
+            bytesPerMilli = format.getFrameSize() * format.getFrameRate() / 1000f;
+            int frameSize = format.getFrameSize();
+            int chunkBytes = Math.max(frameSize, (int) (bytesPerMilli * CHUNK_MILLIS) / frameSize * frameSize);
+            chunk = new byte[chunkBytes];
+            out = new byte[chunkBytes];
+            mix = new int[chunkBytes / 2];
+
+            line = lineFactory.open(format, Math.max(chunkBytes * 2, (int) (bytesPerMilli * LINE_BUFFER_MILLIS) / frameSize * frameSize));
+            line.start();
+
+            thread = new Thread(this, "AudioOutput-" + (int) format.getSampleRate() + "-" + format.getChannels());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    int length = mixChunk();
+                    if (length > 0) {
+                        line.write(out, 0, length);
+                    } else {
+                        synchronized (this) {
+                            wait(hasPlayingChannel() ? 5 : 100);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                line.close();
+            }
+        }
+
+        // Sums one chunk from every playing channel into out; returns the number of bytes mixed
+        private int mixChunk() {
+            int mixed = 0;
+            int channelsMixed = 0;
+            for (Channel channel : channels) {
+                if (!channel.playing) {
+                    continue;
+                }
+                int read = channel.buffer.read(chunk, 0, chunk.length);
+                if (read == 0) {
+                    if (!channel.starved && channel.fed && !channel.endOfStream) {
+                        reportUnderrun(channel);
+                    }
+                    channel.starved = true;
+                    continue;
+                }
+                channel.starved = false;
+
+                int samples = read / 2;
+                float gain = channel.gain;
+                if (channelsMixed == 0) {
+                    for (int i = 0, j = 0; i < samples; i++, j += 2) {
+                        mix[i] = (int) ((short) ((chunk[j] & 0xff) | (chunk[j + 1] << 8)) * gain);
+                    }
+                    for (int i = samples; i < mix.length; i++) {
+                        mix[i] = 0;
+                    }
+                } else {
+                    for (int i = 0, j = 0; i < samples; i++, j += 2) {
+                        mix[i] += (int) ((short) ((chunk[j] & 0xff) | (chunk[j + 1] << 8)) * gain);
+                    }
+                }
+                channelsMixed++;
+                mixed = Math.max(mixed, read);
+            }
+
+            for (int i = 0, j = 0; j < mixed; i++, j += 2) {
+                int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+                out[j] = (byte) sample;
+                out[j + 1] = (byte) (sample >> 8);
+            }
+            return mixed;
+        }
+
+        private void reportUnderrun(Channel channel) {
+            channel.underruns.incrementAndGet();
+            underrunCount.incrementAndGet();
+            for (UnderrunListener listener : underrunListeners) {
+                listener.underrun(channel);
+            }
+        }
+
+        private boolean hasPlayingChannel() {
+            for (Channel channel : channels) {
+                if (channel.playing) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        long bufferedMillis() {
+            return bytesToMillis(line.getBufferSize() - line.available());
+        }
+
+        long bytesToMillis(int bytes) {
+            return (long) (bytes / bytesPerMilli);
+        }
+
+        void close() {
+            running = false;
+            wakeUp();
+            line.flush();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package mytunes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Seekable byte source over an audio file, used by both the decoder and the frame scanner. Local
+// files are memory-mapped for playback, so reads are memory copies and seeking costs nothing.
+// Files on network mounts, where every request is a round trip, are read through a FileChannel in
+// large blocks, optionally fetching the next block in the background while the current one is read.
+// One-pass scans always use the FileChannel: a mapping is only released when it is garbage
+// collected, so mapping every file of an import would hold on to them long after they were read.
+public abstract class AudioSource extends InputStream {
+    private static final Set<String> REMOTE_FILE_SYSTEMS = Set.of(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afpfs", "webdav", "davfs", "fuse.sshfs", "9p");
+
+    public enum Mode { AUTO, MAPPED, BUFFERED }
+
+    public static class Config {
+        private Mode mode = Mode.AUTO;
+        private int readAheadBytes = 256 * 1024;
+        private int remoteReadAheadBytes = 4 * 1024 * 1024;
+        private boolean remotePrefetch = true;
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public Config setMode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        // Block size for BUFFERED sources on local disks, and for files too large to map
+        public int getReadAheadBytes() {
+            return readAheadBytes;
+        }
+
+        public Config setReadAheadBytes(int readAheadBytes) {
+            this.readAheadBytes = Math.max(4096, readAheadBytes);
+            return this;
+        }
+
+        // Block size for files on network mounts
+        public int getRemoteReadAheadBytes() {
+            return remoteReadAheadBytes;
+        }
+
+        public Config setRemoteReadAheadBytes(int remoteReadAheadBytes) {
+            this.remoteReadAheadBytes = Math.max(4096, remoteReadAheadBytes);
+            return this;
+        }
+
+        // Whether the next block of a file on a network mount is read while the current one is consumed
+        public boolean isRemotePrefetch() {
+            return remotePrefetch;
+        }
+
+        public Config setRemotePrefetch(boolean remotePrefetch) {
+            this.remotePrefetch = remotePrefetch;
+            return this;
+        }
+    }
+
+    private static volatile Config defaultConfig = new Config();
+
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "AudioSource-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static Config getDefaultConfig() {
+        return defaultConfig;
+    }
+
+    public static void setDefaultConfig(Config config) {
+        defaultConfig = config;
+    }
+
+    public static AudioSource open(String filePath) throws IOException {
+        return open(filePath, defaultConfig);
+    }
+
+    public static AudioSource open(String filePath, Config config) throws IOException {
+        Path path = Paths.get(filePath);
+        boolean remote = isRemote(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            boolean mapped = config.getMode() == Mode.MAPPED || (config.getMode() == Mode.AUTO && !remote);
+            if (mapped && size <= Integer.MAX_VALUE) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                channel.close(); // The mapping stays valid without the channel
+                return new MappedSource(map);
+            }
+            int blockSize = remote ? config.getRemoteReadAheadBytes() : config.getReadAheadBytes();
+            return new ChannelSource(channel, size, blockSize, remote && config.isRemotePrefetch());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // For reading a file once from start to end, as the frame scanner does; never mapped
+    public static AudioSource openForScan(String filePath) throws IOException {
+        Config config = defaultConfig;
+        return open(filePath, new Config()
+                .setMode(Mode.BUFFERED)
+                .setReadAheadBytes(config.getReadAheadBytes())
+                .setRemoteReadAheadBytes(config.getRemoteReadAheadBytes())
+                .setRemotePrefetch(config.isRemotePrefetch()));
+    }
+
+    static boolean isRemote(Path path) {
+        try {
+            FileStore store = Files.getFileStore(path);
+            return REMOTE_FILE_SYSTEMS.contains(store.type().toLowerCase(Locale.ROOT))
+                    || path.toString().startsWith("\\\\"); // Windows UNC path
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long mark;
+
+    public abstract long length();
+
+    public abstract long position();
+
+    // Moves to an absolute byte offset; positions past the end read as end of file
+    public abstract void seek(long position) throws IOException;
+
+    // Skipping never reads the skipped bytes
+    @Override
+    public long skip(long n) throws IOException {
+        long target = Math.min(length(), position() + Math.max(0, n));
+        long skipped = target - position();
+        seek(target);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length() - position());
+    }
+
+    // Any position can be returned to, however far the stream has been read since
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        seek(mark);
+    }
+
+    // A read-only mapping of the whole file
+    private static class MappedSource extends AudioSource {
+        private final MappedByteBuffer map;
+
+        MappedSource(MappedByteBuffer map) {
+            this.map = map;
+        }
+
+        @Override
+        public int read() {
+            return map.hasRemaining() ? map.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, map.remaining());
+            if (n == 0) {
+                return -1;
+            }
+            map.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return map.limit();
+        }
+
+        @Override
+        public long position() {
+            return map.position();
+        }
+
+        @Override
+        public void seek(long position) {
+            map.position((int) Math.max(0, Math.min(position, map.limit())));
+        }
+    }
+
+    // Reads the file in blocks of blockSize with positional reads; with prefetch, the block after the
+    // current one is read on a background thread into a second buffer
+    private static class ChannelSource extends AudioSource {
+        private final FileChannel channel;
+        private final long length;
+        private final boolean prefetch;
+        private ByteBuffer buffer;        // holds bytes [bufferStart, bufferStart + buffer.limit())
+        private ByteBuffer spare;
+        private long bufferStart;
+        private long position;
+        private Future<?> pendingRead;    // fills spare from pendingStart
+        private long pendingStart = -1;
+
+        ChannelSource(FileChannel channel, long length, int blockSize, boolean prefetch) {
+            this.channel = channel;
+            this.length = length;
+            this.prefetch = prefetch;
+            // Heap buffers, as a direct one would also wait for garbage collection to be freed
+            buffer = ByteBuffer.allocate(blockSize);
+            buffer.limit(0);
+            spare = prefetch ? ByteBuffer.allocate(blockSize) : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= length || !ensureBuffered()) {
+                return -1;
+            }
+            return buffer.get((int) (position++ - bufferStart)) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int total = 0;
+            while (len > 0 && position < length && ensureBuffered()) {
+                int index = (int) (position - bufferStart);
+                int n = Math.min(len, buffer.limit() - index);
+                buffer.get(index, b, off, n);
+                position += n;
+                off += n;
+                len -= n;
+                total += n;
+            }
+            return total > 0 ? total : -1;
+        }
+
+        // Returns false if there is nothing to read at the position: the file was truncated after
+        // it was opened, so it ends before length
+        private boolean ensureBuffered() throws IOException {
+            if (position < bufferStart || position >= bufferStart + buffer.limit()) {
+                fill(position);
+            }
+            return position < bufferStart + buffer.limit();
+        }
+
+        private void fill(long start) throws IOException {
+            boolean prefetched = awaitPendingRead() && pendingStart == start;
+            if (prefetched) {
+                ByteBuffer filled = spare;
+                spare = buffer;
+                buffer = filled;
+            } else {
+                readBlock(buffer, start);
+            }
+            bufferStart = start;
+            pendingStart = -1;
+
+            long next = start + buffer.limit();
+            if (prefetch && buffer.limit() > 0 && next < length) {
+                ByteBuffer target = spare;
+                pendingStart = next;
+                pendingRead = prefetcher.submit(() -> {
+                    readBlock(target, next);
+                    return null;
+                });
+            }
+        }
+
+        // Waits for a background read so its buffer can be reused; returns whether it succeeded
+        private boolean awaitPendingRead() throws IOException {
+            Future<?> read = pendingRead;
+            pendingRead = null;
+            if (read == null) {
+                return false;
+            }
+            try {
+                read.get();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading ahead", e);
+            } catch (ExecutionException e) {
+                return false; // Read it again in the foreground, which reports the error
+            }
+        }
+
+        private void readBlock(ByteBuffer target, long start) throws IOException {
+            target.clear();
+            long remaining = length - start;
+            if (remaining < target.capacity()) {
+                target.limit((int) remaining);
+            }
+            long at = start;
+            while (target.hasRemaining()) {
+                int n = channel.read(target, at);
+                if (n < 0) {
+                    break;
+                }
+                at += n;
+            }
+            target.flip();
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void seek(long position) {
+            this.position = Math.max(0, Math.min(position, length));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                awaitPendingRead();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package mytunes;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Small JDBC connection pool used by Database so that every call does not pay
+// for a new TCP connection and MySQL handshake. Connections handed out are
+// proxies: close() returns them to the pool and prepareStatement() is served
+// from a per-connection statement cache.
+public class ConnectionPool implements AutoCloseable {
+
+    // Pool settings. Defaults suit a single desktop client talking to a local MySQL.
+    public static class Config {
+        private int maxSize = 8;
+        private int minIdle = 1;
+        private long borrowTimeoutMillis = 30_000;
+        private long idleTimeoutMillis = 5 * 60_000;
+        private long validationIntervalMillis = 30_000;
+        private int validationTimeoutSeconds = 2;
+        private int statementCacheSize = 32;
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public Config setMaxSize(int maxSize) {
+            this.maxSize = Math.max(1, maxSize);
+            return this;
+        }
+
+        public int getMinIdle() {
+            return minIdle;
+        }
+
+        public Config setMinIdle(int minIdle) {
+            this.minIdle = Math.max(0, minIdle);
+            return this;
+        }
+
+        public long getBorrowTimeoutMillis() {
+            return borrowTimeoutMillis;
+        }
+
+        public Config setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+
+        public long getIdleTimeoutMillis() {
+            return idleTimeoutMillis;
+        }
+
+        public Config setIdleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public long getValidationIntervalMillis() {
+            return validationIntervalMillis;
+        }
+
+        public Config setValidationIntervalMillis(long validationIntervalMillis) {
+            this.validationIntervalMillis = validationIntervalMillis;
+            return this;
+        }
+
+        public int getValidationTimeoutSeconds() {
+            return validationTimeoutSeconds;
+        }
+
+        public Config setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+            return this;
+        }
+
+        public int getStatementCacheSize() {
+            return statementCacheSize;
+        }
+
+        public Config setStatementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = Math.max(0, statementCacheSize);
+            return this;
+        }
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Config config;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+    private int totalConnections = 0;
+    private boolean closed = false;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+    private int activeConnections = 0;
+
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password, new Config());
+    }
+
+    public ConnectionPool(String url, String user, String password, Config config) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.config = config;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ConnectionPool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, config.getIdleTimeoutMillis() / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getBorrowTimeoutMillis());
+        PooledConnection pooled = null;
+        boolean create = false;
+
+        synchronized (this) {
+            while (pooled == null && !create) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    pooled = idle.pollFirst();
+                } else if (totalConnections < config.getMaxSize()) {
+                    totalConnections++;
+                    create = true;
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out waiting for a database connection after "
+                                + config.getBorrowTimeoutMillis() + " ms");
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", e);
+                    }
+                }
+            }
+        }
+
+        try {
+            if (create) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+            } else if (!validate(pooled)) {
+                pooled.closePhysical();
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+            }
+        } catch (SQLException e) {
+            synchronized (this) {
+                totalConnections--;
+                notifyAll();
+            }
+            throw e;
+        }
+
+        recordBorrow(System.nanoTime() - start);
+        synchronized (this) {
+            activeConnections++;
+        }
+        return pooled.borrow();
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < config.getValidationIntervalMillis()) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordBorrow(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalBorrowWaitNanos.addAndGet(waitNanos);
+        maxBorrowWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private void release(PooledConnection pooled) {
+        boolean reusable = pooled.reset();
+        synchronized (this) {
+            activeConnections--;
+            if (reusable && !closed) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.addFirst(pooled);
+            } else {
+                totalConnections--;
+            }
+            notifyAll();
+        }
+        if (!reusable || closed) {
+            pooled.closePhysical();
+        }
+    }
+
+    // Closes connections that have sat idle longer than idleTimeoutMillis, keeping minIdle around.
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - config.getIdleTimeoutMillis();
+        Deque<PooledConnection> evicted = new ArrayDeque<>();
+        synchronized (this) {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > config.getMinIdle()) {
+                PooledConnection pooled = it.next();
+                if (pooled.lastUsed < cutoff) {
+                    it.remove();
+                    totalConnections--;
+                    evicted.add(pooled);
+                }
+            }
+        }
+        for (PooledConnection pooled : evicted) {
+            pooled.closePhysical();
+        }
+    }
+
+    @Override
+    public void close() {
+        Deque<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            totalConnections -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        evictor.shutdownNow();
+        for (PooledConnection pooled : toClose) {
+            pooled.closePhysical();
+        }
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public synchronized int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public synchronized int getIdleConnections() {
+        return idle.size();
+    }
+
+    public synchronized int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public double getAverageBorrowWaitMillis() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : totalBorrowWaitNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxBorrowWaitMillis() {
+        return maxBorrowWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[active=%d, idle=%d, total=%d, borrows=%d, avgWait=%.2fms, maxWait=%.2fms, stmtHits=%d, stmtMisses=%d]",
+                getActiveConnections(), getIdleConnections(), getTotalConnections(), getBorrowCount(),
+                getAverageBorrowWaitMillis(), getMaxBorrowWaitMillis(), getStatementCacheHits(), getStatementCacheMisses());
+    }
+
+    // One physical connection plus its prepared statement cache.
+    private class PooledConnection {
+        private final Connection physical;
+        private final Map<String, PreparedStatement> statements;
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > config.getStatementCacheSize()) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new ConnectionHandler(this));
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            if (config.getStatementCacheSize() == 0) {
+                return physical.prepareStatement(sql);
+            }
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null || stmt.isClosed()) {
+                statementCacheMisses.incrementAndGet();
+                stmt = physical.prepareStatement(sql);
+                statements.put(sql, stmt);
+            } else {
+                statementCacheHits.incrementAndGet();
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new StatementHandler(stmt));
+        }
+
+        // Puts the connection back into a clean state; returns false if it should be discarded.
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            for (PreparedStatement stmt : statements.values()) {
+                closeQuietly(stmt);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean released = false;
+
+        ConnectionHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!released) {
+                    released = true;
+                    release(pooled);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return released || pooled.physical.isClosed();
+            }
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("prepareStatement") && args != null && args.length == 1) {
+                return pooled.prepare((String) args[0]);
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    // Cached statements survive close(); only their parameters and open results are cleared.
+    // Result sets the caller left open are closed then, as the statement itself stays open and
+    // would otherwise keep them (and a server-side cursor) alive until it is executed again.
+    private static class StatementHandler implements InvocationHandler {
+        private final PreparedStatement target;
+        private final List<ResultSet> results = new ArrayList<>();
+        private boolean closed = false;
+
+        StatementHandler(PreparedStatement target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    for (ResultSet rs : results) {
+                        rs.close();
+                    }
+                    results.clear();
+                    target.clearParameters();
+                    target.clearBatch();
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed || target.isClosed();
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet) {
+                results.add((ResultSet) result);
+            }
+            return result;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // ignored, the statement is being discarded
+        }
+    }
+}
@@ -2,13 +2,50 @@ package mytunes;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Database {
-    private static final String URL = "jdbc:mysql://localhost:3306/mytunes";
+    private static final String URL = "jdbc:mysql://localhost:3306/mytunes?rewriteBatchedStatements=true&useCursorFetch=true";
     private static final String USER = "root";
     private static final String PASSWORD = ""; // Update with your MySQL password
-    private boolean isAddingToRecent = false;
+    private static final String UPSERT_SONG_SQL = "INSERT INTO Songs(title, artist, album, year, genre, comment, file_path, " +
+            "duration_ms, bitrate_kbps, sample_rate, file_size, file_modified, audio_hash) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id)";
+    // Rewrites everything read from the file; the stored frame index may no longer match the audio
+    private static final String UPDATE_SONG_FILE_DATA_SQL = "UPDATE Songs SET title = ?, artist = ?, album = ?, year = ?, " +
+            "genre = ?, comment = ?, file_path = ?, duration_ms = ?, bitrate_kbps = ?, sample_rate = ?, file_size = ?, " +
+            "file_modified = ?, audio_hash = ?, frame_index = NULL WHERE id = ?";
+    // Appends at the end of the playlist unless the song is already in it
+    private static final String INSERT_PLAYLIST_SONG_SQL = "INSERT INTO PlaylistSongs(playlist_id, song_id, position) " +
+            "SELECT ?, ?, next_position FROM (SELECT COALESCE(MAX(position), 0) + 1 AS next_position " +
+            "FROM PlaylistSongs WHERE playlist_id = ?) AS p " +
+            "ON DUPLICATE KEY UPDATE song_id = PlaylistSongs.song_id";
+    private static final String INSERT_PLAYLIST_SONG_AT_SQL = "INSERT INTO PlaylistSongs(playlist_id, song_id, position) VALUES(?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE song_id = song_id";
+    private static final String SONG_COLUMNS = "id, title, artist, album, year, genre, comment, file_path, duration_ms, " +
+            "bitrate_kbps, sample_rate, file_size, file_modified, audio_hash";
+    private static final String SONG_COLUMNS_QUALIFIED = "Songs.id, Songs.title, Songs.artist, Songs.album, Songs.year, " +
+            "Songs.genre, Songs.comment, Songs.file_path, Songs.duration_ms, Songs.bitrate_kbps, Songs.sample_rate, " +
+            "Songs.file_size, Songs.file_modified, Songs.audio_hash";
+    private static final String SELECT_SONGS_SQL = "SELECT " + SONG_COLUMNS + " FROM Songs";
+    private final ConnectionPool pool;
+    private final Map<String, Integer> playlistIds = new ConcurrentHashMap<>();
+    private int batchSize = 500;         // rows per JDBC batch in addSongs
+    private int commitInterval = 5000;   // rows per transaction in addSongs
+    private int fetchSize = 1000;        // rows per server-side cursor fetch when streaming songs
+    private volatile boolean isAddingToRecent = false;
 
     static {
         try {
@@ -19,78 +56,187 @@ public class Database {
     }
 
     public Database() {
+        this(new ConnectionPool(URL, USER, PASSWORD));
+    }
+
+    // Allows pointing the app (or a test) at any JDBC source, e.g. an in-process database
+    public Database(ConnectionPool pool) {
+        this.pool = pool;
         createTables();
     }
 
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public void close() {
+        pool.close();
+    }
+
+    // Brings the schema up to date; see SchemaMigrator for the versioned changes
     public void createTables() {
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); Statement stmt = conn.createStatement()) {
-            String createSongsTable = "CREATE TABLE IF NOT EXISTS Songs (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "title VARCHAR(255)," +
-                    "artist VARCHAR(255)," +
-                    "album VARCHAR(255)," +
-                    "year VARCHAR(10)," + // Updated to VARCHAR(10) to handle longer year values
-                    "genre VARCHAR(255)," +
-                    "comment TEXT," +
-                    "file_path VARCHAR(255) UNIQUE" + // Ensure no duplicate file paths
-                    ")";
-            stmt.execute(createSongsTable);
-
-            String createPlaylistsTable = "CREATE TABLE IF NOT EXISTS Playlists (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "name VARCHAR(255) UNIQUE NOT NULL" +
-                    ")";
-            stmt.execute(createPlaylistsTable);
-
-            String createPlaylistSongsTable = "CREATE TABLE IF NOT EXISTS PlaylistSongs (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "playlist_id INT," +
-                    "song_id INT," +
-                    "FOREIGN KEY (playlist_id) REFERENCES Playlists(id) ON DELETE CASCADE," +
-                    "FOREIGN KEY (song_id) REFERENCES Songs(id) ON DELETE CASCADE" +
-                    ")";
-            stmt.execute(createPlaylistSongsTable);
+        try {
+            new SchemaMigrator(pool).migrate();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
     public void addSong(Song song) {
-        if (!songExists(song)) {
-            String sql = "INSERT INTO Songs(title, artist, album, year, genre, comment, file_path) VALUES(?, ?, ?, ?, ?, ?, ?)";
-            try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, song.getTitle());
-                pstmt.setString(2, song.getArtist());
-                pstmt.setString(3, song.getAlbum());
-                pstmt.setString(4, song.getYear());
-                pstmt.setString(5, song.getGenre());
-                pstmt.setString(6, song.getComment());
-                pstmt.setString(7, song.getFilePath());
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                e.printStackTrace();
+        // Single round trip: the UNIQUE file_path key turns a duplicate into a no-op,
+        // and LAST_INSERT_ID(id) makes the existing row's id come back as the generated key
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(UPSERT_SONG_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            bindNewSong(pstmt, song);
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    song.setId(keys.getInt(1));
+                }
             }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
     }
 
-    private boolean songExists(Song song) {
-        String sql = "SELECT COUNT(*) FROM Songs WHERE file_path = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, song.getFilePath());
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+    // Bulk import: inserts the songs with JDBC batching, committing every commitInterval rows.
+    // Songs whose file_path is already in the library are left untouched. Returns the database
+    // id of every song in input order (also set on the Song objects), so callers don't need to
+    // re-read the Songs table; an entry is 0 if that song could not be stored. Ids are only set
+    // once their rows are committed, so a rollback leaves no song with the id of a row that is gone.
+    public List<Integer> addSongs(Collection<Song> songs) {
+        List<Song> pending = new ArrayList<>(songs);
+        List<Integer> ids = new ArrayList<>(pending.size());
+        if (pending.isEmpty()) {
+            return ids;
+        }
+
+        int[] resolved = new int[pending.size()];
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insertStmt = conn.prepareStatement(UPSERT_SONG_SQL)) {
+                int committed = 0;
+                for (int from = 0; from < pending.size(); from += batchSize) {
+                    int to = Math.min(from + batchSize, pending.size());
+                    List<Song> batch = pending.subList(from, to);
+                    for (Song song : batch) {
+                        bindNewSong(insertStmt, song);
+                        insertStmt.addBatch();
+                    }
+                    insertStmt.executeBatch();
+                    System.arraycopy(lookupSongIds(conn, batch), 0, resolved, from, batch.size());
+
+                    if (to - committed >= commitInterval || to == pending.size()) {
+                        conn.commit();
+                        for (; committed < to; committed++) {
+                            pending.get(committed).setId(resolved[committed]);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return false;
+
+        for (Song song : pending) {
+            ids.add(song.getId());
+        }
+        return ids;
+    }
+
+    private void resolveSongIds(Connection conn, List<Song> batch) throws SQLException {
+        int[] ids = lookupSongIds(conn, batch);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setId(ids[i]);
+        }
+    }
+
+    // Looks up the ids of one batch with a single IN query, matching rows back by file path; 0 if not stored
+    private int[] lookupSongIds(Connection conn, List<Song> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT id, file_path FROM Songs WHERE file_path IN (");
+        for (int i = 0; i < batch.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < batch.size(); i++) {
+                pstmt.setString(i + 1, batch.get(i).getFilePath());
+            }
+            Map<String, Integer> idsByPath = new HashMap<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    idsByPath.put(rs.getString("file_path"), rs.getInt("id"));
+                }
+            }
+            int[] ids = new int[batch.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = idsByPath.getOrDefault(batch.get(i).getFilePath(), 0);
+            }
+            return ids;
+        }
+    }
+
+    private void bindSong(PreparedStatement pstmt, Song song) throws SQLException {
+        pstmt.setString(1, song.getTitle());
+        pstmt.setString(2, song.getArtist());
+        pstmt.setString(3, song.getAlbum());
+        pstmt.setString(4, song.getYear());
+        pstmt.setString(5, song.getGenre());
+        pstmt.setString(6, song.getComment());
+        pstmt.setString(7, song.getFilePath());
+    }
+
+    // Tags plus everything else read from the file: audio properties, size, time and audio hash
+    private void bindNewSong(PreparedStatement pstmt, Song song) throws SQLException {
+        bindSong(pstmt, song);
+        setPositiveOrNull(pstmt, 8, song.getDurationMs());
+        setPositiveOrNull(pstmt, 9, song.getBitrateKbps());
+        setPositiveOrNull(pstmt, 10, song.getSampleRate());
+        setPositiveOrNull(pstmt, 11, song.getFileSize());
+        setPositiveOrNull(pstmt, 12, song.getFileModified());
+        pstmt.setString(13, song.getAudioHash());
+    }
+
+    private static void setPositiveOrNull(PreparedStatement pstmt, int index, int value) throws SQLException {
+        if (value > 0) {
+            pstmt.setInt(index, value);
+        } else {
+            pstmt.setNull(index, Types.INTEGER);
+        }
+    }
+
+    private static void setPositiveOrNull(PreparedStatement pstmt, int index, long value) throws SQLException {
+        if (value > 0) {
+            pstmt.setLong(index, value);
+        } else {
+            pstmt.setNull(index, Types.BIGINT);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    public void setCommitInterval(int commitInterval) {
+        this.commitInterval = Math.max(1, commitInterval);
     }
 
     public void deleteSong(Song song) {
         // Delete the song from the library and all playlists
         String sql = "DELETE FROM Songs WHERE file_path = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, song.getFilePath());
             pstmt.executeUpdate();
         } catch (SQLException e) {
@@ -98,22 +244,219 @@ public class Database {
         }
     }
 
+    // Deletes many songs (and their playlist entries) with one batched statement.
+    // Returns false if the batch was rolled back.
+    public boolean deleteSongs(Collection<Song> songs) {
+        if (songs.isEmpty()) {
+            return true;
+        }
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement("DELETE FROM Songs WHERE file_path = ?")) {
+            conn.setAutoCommit(false);
+            try {
+                int batched = 0;
+                for (Song song : songs) {
+                    pstmt.setString(1, song.getFilePath());
+                    pstmt.addBatch();
+                    if (++batched % batchSize == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public boolean updateSong(Song song) {
+        String sql = "UPDATE Songs SET title = ?, artist = ?, album = ?, year = ?, genre = ?, comment = ? WHERE file_path = ?";
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bindSong(pstmt, song);
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Stores songs whose file was re-read or moved: tags, audio properties, path, size and time are
+    // written by id in one batched transaction, and the stored frame index is dropped.
+    // Returns false if the batch was rolled back.
+    public boolean updateSongFileData(Collection<Song> songs) {
+        if (songs.isEmpty()) {
+            return true;
+        }
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(UPDATE_SONG_FILE_DATA_SQL)) {
+            conn.setAutoCommit(false);
+            try {
+                int batched = 0;
+                for (Song song : songs) {
+                    if (song.getId() <= 0) {
+                        continue;
+                    }
+                    bindNewSong(pstmt, song);
+                    pstmt.setInt(14, song.getId());
+                    pstmt.addBatch();
+                    if (++batched % batchSize == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Stores audio hashes computed after import, in one batched transaction.
+    // Returns false if the batch was rolled back.
+    public boolean saveAudioHashes(Collection<Song> songs) {
+        if (songs.isEmpty()) {
+            return true;
+        }
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement("UPDATE Songs SET audio_hash = ? WHERE id = ?")) {
+            conn.setAutoCommit(false);
+            try {
+                int batched = 0;
+                for (Song song : songs) {
+                    if (song.getId() <= 0) {
+                        continue;
+                    }
+                    pstmt.setString(1, song.getAudioHash());
+                    pstmt.setInt(2, song.getId());
+                    pstmt.addBatch();
+                    if (++batched % batchSize == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Ids of songs with identical audio, one list per group, found through the audio_hash index
+    public List<List<Integer>> getDuplicateSongIds() {
+        List<List<Integer>> groups = new ArrayList<>();
+        String sql = "SELECT s.id, s.audio_hash FROM Songs s " +
+                "JOIN (SELECT audio_hash FROM Songs WHERE audio_hash IS NOT NULL GROUP BY audio_hash HAVING COUNT(*) > 1) d " +
+                "ON s.audio_hash = d.audio_hash ORDER BY s.audio_hash, s.id";
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            String currentHash = null;
+            List<Integer> group = null;
+            while (rs.next()) {
+                String hash = rs.getString("audio_hash");
+                if (!hash.equals(currentHash)) {
+                    currentHash = hash;
+                    group = new ArrayList<>();
+                    groups.add(group);
+                }
+                group.add(rs.getInt("id"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return groups;
+    }
+
     public List<Song> getAllSongs() {
         List<Song> songs = new ArrayList<>();
-        String sql = "SELECT * FROM Songs";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Song song = new Song(
-                        rs.getInt("id"),  // Get the song ID
-                        rs.getString("title"),
-                        rs.getString("artist"),
-                        rs.getString("album"),
-                        rs.getString("year"),
-                        rs.getString("genre"),
-                        rs.getString("comment"),
-                        rs.getString("file_path")
-                );
-                songs.add(song);
+        forEachSong(songs::add);
+        return songs;
+    }
+
+    // Streams the whole Songs table through the callback, in id order, without the driver
+    // buffering the full result set. Rows are fetched fetchSize at a time from a server-side cursor.
+    public void forEachSong(Consumer<Song> action) {
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(SELECT_SONGS_SQL + " ORDER BY id")) {
+            pstmt.setFetchSize(fetchSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(mapSong(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Lazy variant of forEachSong. The stream holds a pooled connection until it is closed,
+    // so it must be used in a try-with-resources block.
+    public Stream<Song> streamSongs() {
+        Connection conn = null;
+        try {
+            conn = pool.getConnection();
+            PreparedStatement pstmt = conn.prepareStatement(SELECT_SONGS_SQL + " ORDER BY id");
+            pstmt.setFetchSize(fetchSize);
+            ResultSet rs = pstmt.executeQuery();
+            Connection owner = conn;
+            Spliterator<Song> rows = new Spliterators.AbstractSpliterator<Song>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super Song> action) {
+                    try {
+                        if (!rs.next()) {
+                            return false;
+                        }
+                        action.accept(mapSong(rs));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Failed to read song row", e);
+                    }
+                }
+            };
+            return StreamSupport.stream(rows, false).onClose(() -> {
+                try {
+                    rs.close();
+                    pstmt.close();
+                    owner.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException ignored) {
+                    // already failing
+                }
+            }
+            return Stream.empty();
+        }
+    }
+
+    // Keyset paging: the next page of at most limit songs with an id greater than afterId.
+    // Start with afterId = 0 and pass the id of the last song of each page to get the next one.
+    public List<Song> getSongsAfter(int afterId, int limit) {
+        List<Song> songs = new ArrayList<>();
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(SELECT_SONGS_SQL + " WHERE id > ? ORDER BY id LIMIT ?")) {
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    songs.add(mapSong(rs));
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -121,10 +464,67 @@ public class Database {
         return songs;
     }
 
+    private Song mapSong(ResultSet rs) throws SQLException {
+        Song song = new Song(
+                rs.getInt("id"),  // Get the song ID
+                rs.getString("title"),
+                rs.getString("artist"),
+                rs.getString("album"),
+                rs.getString("year"),
+                rs.getString("genre"),
+                rs.getString("comment"),
+                rs.getString("file_path")
+        );
+        song.setDurationMs(rs.getInt("duration_ms"));
+        song.setBitrateKbps(rs.getInt("bitrate_kbps"));
+        song.setSampleRate(rs.getInt("sample_rate"));
+        song.setFileSize(rs.getLong("file_size"));
+        song.setFileModified(rs.getLong("file_modified"));
+        song.setAudioHash(rs.getString("audio_hash"));
+        return song;
+    }
+
+    // Returns the stored frame index for a file, or null if it has not been indexed yet
+    public Mp3FrameIndex getFrameIndex(String filePath) {
+        String sql = "SELECT frame_index FROM Songs WHERE file_path = ?";
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, filePath);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    byte[] data = rs.getBytes("frame_index");
+                    return data == null ? null : Mp3FrameIndex.fromBytes(data);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void saveFrameIndex(String filePath, Mp3FrameIndex index) {
+        String sql = "UPDATE Songs SET duration_ms = ?, frame_index = ? WHERE file_path = ?";
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, index.getDurationMs());
+            pstmt.setBytes(2, index.toBytes());
+            pstmt.setString(3, filePath);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
     public void createPlaylist(String name) {
         if (!playlistExists(name)) {
             String sql = "INSERT INTO Playlists(name) VALUES(?)";
-            try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setString(1, name);
                 pstmt.executeUpdate();
             } catch (SQLException e) {
@@ -136,7 +536,7 @@ public class Database {
     public List<String> getAllPlaylists() {
         List<String> playlists = new ArrayList<>();
         String sql = "SELECT name FROM Playlists";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
                 playlists.add(rs.getString("name"));
             }
@@ -148,25 +548,17 @@ public class Database {
 
     public List<Song> getSongsFromPlaylist(String playlistName) {
         List<Song> songs = new ArrayList<>();
-        String sql = "SELECT Songs.* FROM Songs " +
+        String sql = "SELECT " + SONG_COLUMNS_QUALIFIED + " FROM Songs " +
                 "JOIN PlaylistSongs ON Songs.id = PlaylistSongs.song_id " +
                 "JOIN Playlists ON Playlists.id = PlaylistSongs.playlist_id " +
-                "WHERE Playlists.name = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                "WHERE Playlists.name = ? " +
+                "ORDER BY PlaylistSongs.position";
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, playlistName);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                Song song = new Song(
-                        rs.getInt("id"),  // Get the song ID
-                        rs.getString("title"),
-                        rs.getString("artist"),
-                        rs.getString("album"),
-                        rs.getString("year"),
-                        rs.getString("genre"),
-                        rs.getString("comment"),
-                        rs.getString("file_path")
-                );
-                songs.add(song);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    songs.add(mapSong(rs));
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -181,51 +573,173 @@ public class Database {
             return;
         }
 
-        String checkSongInPlaylistSql = "SELECT COUNT(*) FROM PlaylistSongs " +
-                "JOIN Playlists ON PlaylistSongs.playlist_id = Playlists.id " +
-                "WHERE Playlists.name = ? AND PlaylistSongs.song_id = ?";
-        String getPlaylistIdSql = "SELECT id FROM Playlists WHERE name = ?";
-        String getSongIdSql = "SELECT id FROM Songs WHERE file_path = ?";
-        String insertSql = "INSERT INTO PlaylistSongs(playlist_id, song_id) VALUES(?, ?)";
+        try (Connection conn = pool.getConnection()) {
+            int playlistId = getPlaylistId(conn, playlistName);
+            int songId = song.getId() > 0 ? song.getId() : getSongId(conn, song.getFilePath());
+            if (playlistId > 0 && songId > 0) {
+                try (PreparedStatement insertStmt = conn.prepareStatement(INSERT_PLAYLIST_SONG_SQL)) {
+                    insertStmt.setInt(1, playlistId);
+                    insertStmt.setInt(2, songId);
+                    insertStmt.setInt(3, playlistId);
+                    insertStmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
 
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
-             PreparedStatement checkStmt = conn.prepareStatement(checkSongInPlaylistSql);
-             PreparedStatement getPlaylistIdStmt = conn.prepareStatement(getPlaylistIdSql);
-             PreparedStatement getSongIdStmt = conn.prepareStatement(getSongIdSql);
-             PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
+    // Fast path when both ids are already known: a single "insert if absent" statement
+    public void addSongToPlaylist(int songId, int playlistId) {
+        try (Connection conn = pool.getConnection(); PreparedStatement insertStmt = conn.prepareStatement(INSERT_PLAYLIST_SONG_SQL)) {
+            insertStmt.setInt(1, playlistId);
+            insertStmt.setInt(2, songId);
+            insertStmt.setInt(3, playlistId);
+            insertStmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Get playlist ID
-            getPlaylistIdStmt.setString(1, playlistName);
-            ResultSet playlistRs = getPlaylistIdStmt.executeQuery();
-            if (playlistRs.next()) {
-                int playlistId = playlistRs.getInt("id");
-
-                // Get song ID
-                getSongIdStmt.setString(1, song.getFilePath());
-                ResultSet songRs = getSongIdStmt.executeQuery();
-                if (songRs.next()) {
-                    int songId = songRs.getInt("id");
-
-                    // Check if the song is already in the playlist
-                    checkStmt.setString(1, playlistName);
-                    checkStmt.setInt(2, songId);
-                    ResultSet checkRs = checkStmt.executeQuery();
-                    if (checkRs.next() && checkRs.getInt(1) == 0) {
-                        // If the song is not already in the playlist, add it
+    // Adds many songs to a playlist with one batched statement. Songs already in the playlist are skipped.
+    public void addSongsToPlaylist(List<Song> songs, String playlistName) {
+        if ("Recent".equalsIgnoreCase(playlistName) && !isAddingToRecent) {
+            System.out.println("Cannot manually add songs to the 'Recent' playlist.");
+            return;
+        }
+        if (songs.isEmpty()) {
+            return;
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            int playlistId = getPlaylistId(conn, playlistName);
+            if (playlistId <= 0) {
+                return;
+            }
+
+            // Songs created from files may not know their id yet
+            List<Song> unresolved = new ArrayList<>();
+            for (Song song : songs) {
+                if (song.getId() <= 0) {
+                    unresolved.add(song);
+                }
+            }
+            for (int from = 0; from < unresolved.size(); from += batchSize) {
+                resolveSongIds(conn, unresolved.subList(from, Math.min(from + batchSize, unresolved.size())));
+            }
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement insertStmt = conn.prepareStatement(INSERT_PLAYLIST_SONG_AT_SQL)) {
+                int position = getMaxPosition(conn, playlistId);
+                int batched = 0;
+                for (Song song : songs) {
+                    if (song.getId() > 0) {
                         insertStmt.setInt(1, playlistId);
-                        insertStmt.setInt(2, songId);
-                        insertStmt.executeUpdate();
+                        insertStmt.setInt(2, song.getId());
+                        insertStmt.setInt(3, ++position);
+                        insertStmt.addBatch();
+                        if (++batched % batchSize == 0) {
+                            insertStmt.executeBatch();
+                        }
                     }
                 }
+                insertStmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    public int getPlaylistId(String playlistName) {
+        try (Connection conn = pool.getConnection()) {
+            return getPlaylistId(conn, playlistName);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    // Playlist ids never change for a given name, so they are cached until the playlist is deleted
+    private int getPlaylistId(Connection conn, String playlistName) throws SQLException {
+        Integer cached = playlistIds.get(playlistName);
+        if (cached != null) {
+            return cached;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM Playlists WHERE name = ?")) {
+            pstmt.setString(1, playlistName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    int id = rs.getInt("id");
+                    playlistIds.put(playlistName, id);
+                    return id;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private int getMaxPosition(Connection conn, int playlistId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT COALESCE(MAX(position), 0) FROM PlaylistSongs WHERE playlist_id = ?")) {
+            pstmt.setInt(1, playlistId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private int getSongId(Connection conn, String filePath) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM Songs WHERE file_path = ?")) {
+            pstmt.setString(1, filePath);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("id");
+                }
+            }
+        }
+        return 0;
+    }
+
+    public List<String> getWatchedFolders() {
+        List<String> folders = new ArrayList<>();
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT path FROM WatchedFolders ORDER BY path")) {
+            while (rs.next()) {
+                folders.add(rs.getString("path"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return folders;
+    }
+
+    public void addWatchedFolder(String path) {
+        String sql = "INSERT IGNORE INTO WatchedFolders(path) VALUES(?)";
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, path);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void removeWatchedFolder(String path) {
+        String sql = "DELETE FROM WatchedFolders WHERE path = ?";
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, path);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void deletePlaylist(String playlistName) {
+        playlistIds.remove(playlistName);
         String sql = "DELETE FROM Playlists WHERE name = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, playlistName);
             pstmt.executeUpdate();
         } catch (SQLException e) {
@@ -237,33 +751,155 @@ public class Database {
         String getPlaylistIdSql = "SELECT id FROM Playlists WHERE name = ?";
         String deleteSongFromPlaylistSql = "DELETE FROM PlaylistSongs WHERE playlist_id = ? AND song_id = ? LIMIT 1";
 
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
+        try (Connection conn = pool.getConnection();
              PreparedStatement getPlaylistIdStmt = conn.prepareStatement(getPlaylistIdSql);
              PreparedStatement deleteSongStmt = conn.prepareStatement(deleteSongFromPlaylistSql)) {
 
             // Get the playlist ID
             getPlaylistIdStmt.setString(1, playlistName);
-            ResultSet playlistRs = getPlaylistIdStmt.executeQuery();
-            if (playlistRs.next()) {
-                int playlistId = playlistRs.getInt("id");
+            try (ResultSet playlistRs = getPlaylistIdStmt.executeQuery()) {
+                if (playlistRs.next()) {
+                    int playlistId = playlistRs.getInt("id");
 
-                // Delete only the specific instance of the song from the playlist
-                deleteSongStmt.setInt(1, playlistId);
-                deleteSongStmt.setInt(2, song.getId());
-                deleteSongStmt.executeUpdate();
+                    // Delete only the specific instance of the song from the playlist
+                    deleteSongStmt.setInt(1, playlistId);
+                    deleteSongStmt.setInt(2, song.getId());
+                    deleteSongStmt.executeUpdate();
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    // Applies a batch of coalesced plays: bumps play counts, moves each song to the end of the
+    // "Recent" playlist and trims it to the newest maxRecent entries, all in one transaction.
+    // Plays of songs deleted since they were recorded are dropped. Returns false only if the batch
+    // could not be written for a reason that may pass, such as a lost connection, so the caller can
+    // retry later; a batch the database rejects as invalid would be rejected again, so it is dropped.
+    public boolean recordPlays(Collection<PlayHistoryRecorder.PlayEvent> plays, int maxRecent) {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement createRecent = conn.prepareStatement("INSERT IGNORE INTO Playlists(name) VALUES('Recent')");
+                 PreparedStatement countStmt = conn.prepareStatement(
+                         "INSERT INTO SongPlays(song_id, play_count, last_played) VALUES(?, ?, ?) " +
+                         "ON DUPLICATE KEY UPDATE play_count = play_count + VALUES(play_count), " +
+                         "last_played = GREATEST(COALESCE(last_played, VALUES(last_played)), VALUES(last_played))");
+                 PreparedStatement recentStmt = conn.prepareStatement(
+                         "INSERT INTO PlaylistSongs(playlist_id, song_id, position) VALUES(?, ?, ?) " +
+                         "ON DUPLICATE KEY UPDATE position = VALUES(position)");
+                 PreparedStatement trimStmt = conn.prepareStatement(
+                         "DELETE ps FROM PlaylistSongs ps JOIN (SELECT position FROM PlaylistSongs WHERE playlist_id = ? " +
+                         "ORDER BY position DESC LIMIT 1 OFFSET ?) AS cutoff ON ps.position <= cutoff.position " +
+                         "WHERE ps.playlist_id = ?")) {
+                List<PlayHistoryRecorder.PlayEvent> ordered = new ArrayList<>();
+                Set<Integer> existing = lockSongIds(conn, plays);
+                for (PlayHistoryRecorder.PlayEvent play : plays) {
+                    if (existing.contains(play.getSongId())) {
+                        ordered.add(play);
+                    }
+                }
+                ordered.sort(Comparator.comparingLong(PlayHistoryRecorder.PlayEvent::getPlayedAt));
+
+                createRecent.executeUpdate();
+                int recentId = getPlaylistId(conn, "Recent");
+                int position = getMaxPosition(conn, recentId);
+
+                for (PlayHistoryRecorder.PlayEvent play : ordered) {
+                    countStmt.setInt(1, play.getSongId());
+                    countStmt.setInt(2, play.getCount());
+                    countStmt.setTimestamp(3, new Timestamp(play.getPlayedAt()));
+                    countStmt.addBatch();
+
+                    recentStmt.setInt(1, recentId);
+                    recentStmt.setInt(2, play.getSongId());
+                    recentStmt.setInt(3, ++position);
+                    recentStmt.addBatch();
+                }
+                countStmt.executeBatch();
+                recentStmt.executeBatch();
+
+                trimStmt.setInt(1, recentId);
+                trimStmt.setInt(2, maxRecent);
+                trimStmt.setInt(3, recentId);
+                trimStmt.executeUpdate();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return isConstraintViolation(e);
+        }
+    }
+
+    // SQLState class 23; batches report it on a BatchUpdateException wrapping the driver's error
+    private static boolean isConstraintViolation(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLIntegrityConstraintViolationException
+                    || (t instanceof SQLException && ((SQLException) t).getSQLState() != null && ((SQLException) t).getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The ids among the plays' songs that still have a row, share-locked until the transaction ends
+    // so a concurrent delete can't make the play counts' foreign keys fail
+    private Set<Integer> lockSongIds(Connection conn, Collection<PlayHistoryRecorder.PlayEvent> plays) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        for (PlayHistoryRecorder.PlayEvent play : plays) {
+            ids.add(play.getSongId());
+        }
+        Set<Integer> existing = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<Integer> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            StringBuilder sql = new StringBuilder("SELECT id FROM Songs WHERE id IN (");
+            for (int i = 0; i < batch.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(") LOCK IN SHARE MODE");
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                for (int i = 0; i < batch.size(); i++) {
+                    pstmt.setInt(i + 1, batch.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        existing.add(rs.getInt(1));
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+
+    // The play count and last play of every song played at least once, by song id
+    public Map<Integer, PlayHistoryRecorder.PlayEvent> getPlayStats() {
+        Map<Integer, PlayHistoryRecorder.PlayEvent> stats = new HashMap<>();
+        String sql = "SELECT song_id, play_count, last_played FROM SongPlays";
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                int songId = rs.getInt("song_id");
+                Timestamp lastPlayed = rs.getTimestamp("last_played");
+                stats.put(songId, new PlayHistoryRecorder.PlayEvent(songId, lastPlayed != null ? lastPlayed.getTime() : 0, rs.getInt("play_count")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return stats;
+    }
+
     public boolean playlistExists(String playlistName) {
         String sql = "SELECT COUNT(*) FROM Playlists WHERE name = ?";
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASSWORD); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, playlistName);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
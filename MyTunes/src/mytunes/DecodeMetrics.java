@@ -0,0 +1,79 @@
+package mytunes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// Receives the cost of every decoded MP3 frame. Set one on MP3Player to watch decode time and
+// allocation on the playback path; when none is set nothing is measured.
+public interface DecodeMetrics {
+
+    // allocatedBytes is -1 when the JVM cannot measure per-thread allocation
+    void frameDecoded(long decodeNanos, long allocatedBytes);
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM does not track it
+    static long currentThreadAllocatedBytes() {
+        com.sun.management.ThreadMXBean bean = Allocation.BEAN;
+        return bean != null ? bean.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    // Looked up once: fetching the bean allocates, which would show up in every measurement
+    final class Allocation {
+        static final com.sun.management.ThreadMXBean BEAN;
+
+        static {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            BEAN = bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+        }
+
+        private Allocation() {
+        }
+    }
+
+    // Running totals, safe to read from another thread while playback updates them
+    class Summary implements DecodeMetrics {
+        private final long startNanos = System.nanoTime();
+        private long frames;
+        private long totalDecodeNanos;
+        private long maxDecodeNanos;
+        private long allocatedBytes;
+
+        @Override
+        public synchronized void frameDecoded(long decodeNanos, long allocated) {
+            frames++;
+            totalDecodeNanos += decodeNanos;
+            maxDecodeNanos = Math.max(maxDecodeNanos, decodeNanos);
+            if (allocated > 0) {
+                allocatedBytes += allocated;
+            }
+        }
+
+        public synchronized long getFrames() {
+            return frames;
+        }
+
+        public synchronized double getAverageDecodeMicros() {
+            return frames == 0 ? 0 : totalDecodeNanos / 1000.0 / frames;
+        }
+
+        public synchronized double getMaxDecodeMicros() {
+            return maxDecodeNanos / 1000.0;
+        }
+
+        public synchronized double getAllocatedBytesPerFrame() {
+            return frames == 0 ? 0 : (double) allocatedBytes / frames;
+        }
+
+        // Decode-path allocation per second of wall time since this summary was created
+        public synchronized double getAllocatedBytesPerSecond() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return seconds > 0 ? allocatedBytes / seconds : 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d frames, %.1f us/frame (max %.1f us), %.1f B/frame, %.1f KB/s allocated",
+                    frames, getAverageDecodeMicros(), getMaxDecodeMicros(), getAllocatedBytesPerFrame(),
+                    getAllocatedBytesPerSecond() / 1024);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package mytunes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Finds songs with identical audio: the same track copied to several folders, or retagged copies.
+// Songs are compared by their audio hash (see Mp3FrameIndex), which ignores tags. Songs imported
+// without one are hashed first, in parallel and a batch at a time, and grouped through the
+// audio_hash index. Both steps block, so call them off the event dispatch thread.
+public class DuplicateFinder {
+    private static final int BATCH_SIZE = 500;
+
+    private final LibraryCache libraryCache;
+    private final Database database;
+    private final MetadataExtractor metadataExtractor;
+    private volatile boolean cancelled;
+
+    public DuplicateFinder(LibraryCache libraryCache, Database database, MetadataExtractor metadataExtractor) {
+        this.libraryCache = libraryCache;
+        this.database = database;
+        this.metadataExtractor = metadataExtractor;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Number of library songs without an audio hash
+    public int countUnhashed() {
+        int count = 0;
+        for (Song song : libraryCache.getSongs()) {
+            if (song.getAudioHash() == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Hashes every song that has no audio hash yet. progress receives the number of songs done so
+    // far after each batch. Returns the number of songs hashed.
+    public int hashMissing(IntConsumer progress) throws InterruptedException {
+        List<Song> batch = new ArrayList<>(BATCH_SIZE);
+        int done = 0;
+        for (Song song : libraryCache.getSongs()) {
+            if (cancelled) {
+                break;
+            }
+            if (song.getAudioHash() == null) {
+                batch.add(song);
+                if (batch.size() == BATCH_SIZE) {
+                    done += hashBatch(batch);
+                    progress.accept(done);
+                }
+            }
+        }
+        if (!batch.isEmpty() && !cancelled) {
+            done += hashBatch(batch);
+            progress.accept(done);
+        }
+        return done;
+    }
+
+    private int hashBatch(List<Song> batch) throws InterruptedException {
+        List<File> files = new ArrayList<>(batch.size());
+        for (Song song : batch) {
+            files.add(new File(song.getFilePath()));
+        }
+        List<String> hashes = metadataExtractor.hashAll(files);
+        List<Song> hashed = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (hashes.get(i) != null) {
+                Song song = batch.get(i).copy(batch.get(i).getFilePath()); // The cache sets the hash once it is stored
+                song.setAudioHash(hashes.get(i));
+                hashed.add(song);
+            }
+        }
+        libraryCache.saveAudioHashes(hashed);
+        int count = batch.size();
+        batch.clear();
+        return count;
+    }
+
+    // Groups of two or more library songs with the same audio, oldest song first in each group
+    public List<List<Song>> findDuplicates() {
+        List<List<Song>> groups = new ArrayList<>();
+        for (List<Integer> ids : database.getDuplicateSongIds()) {
+            List<Song> group = new ArrayList<>(ids.size());
+            for (int id : ids) {
+                Song song = libraryCache.getById(id);
+                if (song != null) {
+                    group.add(song);
+                }
+            }
+            if (group.size() > 1) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+}
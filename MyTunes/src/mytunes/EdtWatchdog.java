@@ -0,0 +1,120 @@
+package mytunes;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.InvocationEvent;
+import java.util.concurrent.TimeUnit;
+
+// Instrumentation that reports every event the event dispatch thread spends more than a threshold
+// on. It replaces the system event queue and times each dispatch; a checker thread samples the EDT's
+// stack while a dispatch is still running past the threshold, so the report shows where the UI
+// thread was stuck rather than just that it was. Enable it with -Dmytunes.edtWatchdog=true.
+public class EdtWatchdog extends EventQueue {
+    public static final String PROPERTY = "mytunes.edtWatchdog";
+    public static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    private final long thresholdNanos;
+    private volatile Thread edt;
+    private volatile long dispatchStartNanos; // 0 while idle
+    private AWTEvent currentEvent; // only used on the EDT
+    private volatile StackTraceElement[] stuckAt;
+
+    private EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    // Installs the watchdog if the system property asks for it
+    public static void installIfEnabled() {
+        if (Boolean.getBoolean(PROPERTY)) {
+            install(DEFAULT_THRESHOLD_MILLIS);
+        }
+    }
+
+    public static EdtWatchdog install(long thresholdMillis) {
+        EdtWatchdog watchdog = new EdtWatchdog(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog);
+        Thread checker = new Thread(watchdog::check, "EdtWatchdog");
+        checker.setDaemon(true);
+        checker.start();
+        return watchdog;
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        edt = Thread.currentThread();
+        // An event dispatched while another one is running comes from a nested loop, such as a modal
+        // dialog's; the outer event is not blocking the UI meanwhile, so only its own time is counted
+        AWTEvent outer = currentEvent;
+        if (outer != null) {
+            endTiming(outer);
+        }
+        currentEvent = event;
+        startTiming();
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            endTiming(event);
+            currentEvent = outer;
+            if (outer != null) {
+                startTiming();
+            }
+        }
+    }
+
+    private void startTiming() {
+        stuckAt = null;
+        dispatchStartNanos = System.nanoTime();
+    }
+
+    private void endTiming(AWTEvent event) {
+        long elapsed = System.nanoTime() - dispatchStartNanos;
+        dispatchStartNanos = 0;
+        if (elapsed > thresholdNanos) {
+            report(event, elapsed);
+        }
+    }
+
+    private void report(AWTEvent event, long elapsedNanos) {
+        StringBuilder message = new StringBuilder("EDT blocked for ")
+                .append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(" ms by ").append(describe(event));
+        StackTraceElement[] stack = stuckAt;
+        if (stack != null) {
+            message.append(System.lineSeparator()).append("  stuck at:");
+            for (StackTraceElement frame : stack) {
+                if (frame.getClassName().equals(EdtWatchdog.class.getName())) {
+                    break; // The rest is the event queue's own dispatching
+                }
+                message.append(System.lineSeparator()).append("    at ").append(frame);
+            }
+        }
+        System.err.println(message);
+    }
+
+    private static String describe(AWTEvent event) {
+        if (event instanceof InvocationEvent) {
+            return "an invokeLater task";
+        }
+        return event.getClass().getSimpleName() + " " + event.paramString() + " on " + event.getSource().getClass().getSimpleName();
+    }
+
+    // Takes one stack sample per slow dispatch, once it has run past the threshold
+    private void check() {
+        long sleepMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(thresholdNanos) / 2);
+        while (true) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStartNanos;
+            Thread thread = edt;
+            if (start != 0 && thread != null && stuckAt == null && System.nanoTime() - start > thresholdNanos) {
+                StackTraceElement[] stack = thread.getStackTrace();
+                if (dispatchStartNanos == start) {
+                    stuckAt = stack;
+                }
+            }
+        }
+    }
+}
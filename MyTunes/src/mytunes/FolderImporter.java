@@ -0,0 +1,318 @@
+package mytunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Imports files and whole folder trees into the library. A walker thread streams the tree into a
+// bounded queue while the importing thread takes batches off it, parses their tags in parallel
+// with the MetadataExtractor and adds each batch with one LibraryCache.addSongs call. Only the
+// queue and the current batch are in memory, so the size of the tree does not matter.
+// Files whose audio is already in the library (same audio hash) can be skipped or linked to the
+// existing song instead of being imported again; see DuplicateMode.
+public class FolderImporter {
+    private static final int QUEUE_CAPACITY = 2048;
+    private static final int BATCH_SIZE = 500;
+    private static final long MAX_BATCH_WAIT_MILLIS = 1000; // a slow walk still shows progress
+    private static final File END_OF_WALK = new File("");
+
+    public enum DuplicateMode {
+        IMPORT, // import every file
+        SKIP,   // leave out files whose audio is already in the library or earlier in the import
+        LINK    // leave them out, but use the existing song wherever the file would have been used
+    }
+
+    public interface Listener {
+        // Called on the importing thread after each batch is in the library; songs holds the
+        // library entry for every file of the batch, including ones that were already imported
+        void batchImported(List<Song> songs);
+
+        // Called on the importing thread after each batch and once at the end
+        void progress(Progress progress);
+    }
+
+    // A snapshot of a running or finished import
+    public static class Progress {
+        private final int filesFound;
+        private final int filesProcessed;
+        private final int songsAdded;
+        private final int duplicates;
+        private final long elapsedMillis;
+        private final boolean finished;
+        private final boolean cancelled;
+
+        Progress(int filesFound, int filesProcessed, int songsAdded, int duplicates, long elapsedMillis, boolean finished, boolean cancelled) {
+            this.filesFound = filesFound;
+            this.filesProcessed = filesProcessed;
+            this.songsAdded = songsAdded;
+            this.duplicates = duplicates;
+            this.elapsedMillis = elapsedMillis;
+            this.finished = finished;
+            this.cancelled = cancelled;
+        }
+
+        public int getFilesFound() {
+            return filesFound;
+        }
+
+        public int getFilesProcessed() {
+            return filesProcessed;
+        }
+
+        public int getSongsAdded() {
+            return songsAdded;
+        }
+
+        // Files left out because their audio was already in the library
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getFilesPerSecond() {
+            return elapsedMillis == 0 ? 0 : filesProcessed * 1000.0 / elapsedMillis;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d files processed, %d songs added, %d duplicates, %.0f files/s",
+                    filesProcessed, filesFound, songsAdded, duplicates, getFilesPerSecond());
+        }
+    }
+
+    private final LibraryCache libraryCache;
+    private final MetadataExtractor metadataExtractor;
+    private volatile DuplicateMode duplicateMode = DuplicateMode.IMPORT;
+    private volatile boolean cancelled;
+
+    public FolderImporter(LibraryCache libraryCache, MetadataExtractor metadataExtractor) {
+        this.libraryCache = libraryCache;
+        this.metadataExtractor = metadataExtractor;
+    }
+
+    public DuplicateMode getDuplicateMode() {
+        return duplicateMode;
+    }
+
+    public void setDuplicateMode(DuplicateMode duplicateMode) {
+        this.duplicateMode = duplicateMode;
+    }
+
+    // Stops the walk and the import after the batch in progress; safe to call from any thread
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Imports the given files and, recursively, the MP3 files under the given folders. Blocks until
+    // done or cancelled, so call it off the event dispatch thread.
+    public Progress importFiles(List<File> roots, Listener listener) throws InterruptedException {
+        long start = System.nanoTime();
+        BlockingQueue<File> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicInteger found = new AtomicInteger();
+        Thread walker = new Thread(() -> walk(roots, queue, found), "FolderImporter-walk");
+        walker.setDaemon(true);
+        walker.start();
+
+        int processed = 0;
+        int added = 0;
+        int duplicates = 0;
+        boolean walkDone = false;
+        List<File> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (!walkDone && !cancelled) {
+                walkDone = takeBatch(queue, batch);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                // Files already in the library are not parsed again, but still count for the listener
+                List<File> newFiles = new ArrayList<>();
+                for (File file : batch) {
+                    if (!libraryCache.contains(file.getAbsolutePath())) {
+                        newFiles.add(file);
+                    }
+                }
+                List<Song> extracted = metadataExtractor.extractAll(newFiles);
+                Map<String, Song> linked = new HashMap<>();
+                if (duplicateMode != DuplicateMode.IMPORT) {
+                    duplicates += removeDuplicates(extracted, linked);
+                }
+                added += libraryCache.addSongs(extracted).size();
+
+                List<Song> songs = new ArrayList<>(batch.size());
+                for (File file : batch) {
+                    Song song = libraryCache.getByPath(file.getAbsolutePath());
+                    if (song == null) {
+                        song = linked.get(file.getAbsolutePath());
+                    }
+                    if (song != null) {
+                        songs.add(song);
+                    }
+                }
+                processed += batch.size();
+                batch.clear();
+                listener.batchImported(songs);
+                listener.progress(new Progress(found.get(), processed, added, duplicates, elapsedMillis(start), false, false));
+            }
+        } finally {
+            if (!walkDone) {
+                cancelled = true;
+                walker.interrupt();
+            }
+        }
+
+        Progress result = new Progress(found.get(), processed, added, duplicates, elapsedMillis(start), true, cancelled);
+        listener.progress(result);
+        return result;
+    }
+
+    // Drops songs whose audio is already in the library or earlier in the batch. In LINK mode the
+    // song each dropped file duplicates is put in linked under the file's path. Returns the number dropped.
+    private int removeDuplicates(List<Song> extracted, Map<String, Song> linked) throws InterruptedException {
+        // The extractor only hashes while hashing is switched on; hash whatever it left out
+        List<File> unhashed = new ArrayList<>();
+        List<Song> unhashedSongs = new ArrayList<>();
+        for (Song song : extracted) {
+            if (song.getAudioHash() == null) {
+                unhashed.add(new File(song.getFilePath()));
+                unhashedSongs.add(song);
+            }
+        }
+        List<String> hashes = metadataExtractor.hashAll(unhashed);
+        for (int i = 0; i < unhashedSongs.size(); i++) {
+            unhashedSongs.get(i).setAudioHash(hashes.get(i));
+        }
+
+        Map<String, Song> batchByHash = new HashMap<>();
+        int before = extracted.size();
+        extracted.removeIf(song -> {
+            String hash = song.getAudioHash();
+            if (hash == null) {
+                return false;
+            }
+            Song original = libraryCache.getByAudioHash(hash);
+            if (original == null) {
+                original = batchByHash.putIfAbsent(hash, song);
+            }
+            if (original == null) {
+                return false;
+            }
+            if (duplicateMode == DuplicateMode.LINK) {
+                linked.put(song.getFilePath(), original);
+            }
+            return true;
+        });
+        return before - extracted.size();
+    }
+
+    // Fills batch with up to BATCH_SIZE files, waiting at most MAX_BATCH_WAIT_MILLIS once it has
+    // one; returns true when the walk has ended
+    private boolean takeBatch(BlockingQueue<File> queue, List<File> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_WAIT_MILLIS);
+        while (batch.size() < BATCH_SIZE && !cancelled) {
+            long waitNanos = batch.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(100) : deadline - System.nanoTime();
+            if (waitNanos <= 0) {
+                break;
+            }
+            File file = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+            if (file == END_OF_WALK) {
+                return true;
+            }
+            if (file != null) {
+                batch.add(file);
+            }
+        }
+        return false;
+    }
+
+    private void walk(List<File> roots, BlockingQueue<File> queue, AtomicInteger found) {
+        try {
+            for (File root : roots) {
+                if (cancelled) {
+                    break;
+                }
+                if (root.isFile()) {
+                    // Files chosen by the user are imported as they are, whatever their extension
+                    found.incrementAndGet();
+                    queue.put(root.getAbsoluteFile());
+                } else if (root.isDirectory()) {
+                    walkFolder(root.toPath(), queue, found);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+            queue.put(END_OF_WALK);
+        } catch (InterruptedException e) {
+            // The import was cancelled; nobody is waiting for the end marker
+        }
+    }
+
+    private void walkFolder(Path folder, BlockingQueue<File> queue, AtomicInteger found) {
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isMp3(file)) {
+                        found.incrementAndGet();
+                        try {
+                            queue.put(file.toAbsolutePath().toFile());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // Unreadable folders are skipped
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static boolean isMp3(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".mp3");
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,180 @@
+package mytunes;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+// Watches the watched folders, and every folder below them, for live changes. Events are collected
+// until the file system has been quiet for QUIET_MILLIS, so a copy that writes a file in many steps,
+// or a move reported as a delete and a create, is handled as one batch by LibraryScanner.reconcile().
+// During a long burst of events the batch is applied every MAX_DELAY_MILLIS or MAX_PENDING paths.
+// If the OS drops events, a full rescan is run instead. Folders are registered on the watcher thread,
+// as that means walking every folder below them.
+public class FolderWatcher implements AutoCloseable {
+    private static final long QUIET_MILLIS = 1000;
+    private static final long MAX_DELAY_MILLIS = 10000; // a long copy is still picked up as it goes
+    private static final int MAX_PENDING = 5000;
+
+    private final LibraryScanner scanner;
+    private final Consumer<LibraryScanner.Result> onChange;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private final Queue<Path> toWatch = new ConcurrentLinkedQueue<>(); // registered by the watcher thread
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // onChange is called on the watcher thread after each batch that changed the library
+    public FolderWatcher(LibraryScanner scanner, Consumer<LibraryScanner.Result> onChange) throws IOException {
+        this.scanner = scanner;
+        this.onChange = onChange;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        thread = new Thread(this::run, "FolderWatcher");
+        thread.setDaemon(true);
+    }
+
+    // Starts watching; the current watched folders are read and registered on the watcher thread
+    public void start() {
+        thread.start();
+    }
+
+    // Starts watching a folder tree within QUIET_MILLIS; may be called from any thread while running
+    public void watch(Path folder) {
+        toWatch.add(folder);
+    }
+
+    private void register(Path folder) {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    synchronized (watchedDirs) {
+                        watchedDirs.put(key, dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stops watching a folder tree
+    public void unwatch(Path folder) {
+        toWatch.removeIf(queued -> queued.startsWith(folder));
+        synchronized (watchedDirs) {
+            watchedDirs.entrySet().removeIf(entry -> {
+                if (entry.getValue().startsWith(folder)) {
+                    entry.getKey().cancel();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private void run() {
+        Set<Path> pending = new LinkedHashSet<>();
+        boolean overflow = false;
+        long firstPendingNanos = 0;
+        try {
+            for (String folder : scanner.getWatchedFolders()) {
+                register(Paths.get(folder));
+            }
+            while (running) {
+                for (Path folder = toWatch.poll(); folder != null; folder = toWatch.poll()) {
+                    register(folder);
+                }
+                WatchKey key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                boolean hasPending = overflow || !pending.isEmpty();
+                if (hasPending && (key == null || pending.size() >= MAX_PENDING
+                        || System.nanoTime() - firstPendingNanos > TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS))) {
+                    apply(overflow, pending);
+                    pending.clear();
+                    overflow = false;
+                }
+                if (key == null) {
+                    continue;
+                }
+                if (!overflow && pending.isEmpty()) {
+                    firstPendingNanos = System.nanoTime();
+                }
+
+                Path dir;
+                synchronized (watchedDirs) {
+                    dir = watchedDirs.get(key);
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                    } else if (dir != null) {
+                        Path path = dir.resolve((Path) event.context());
+                        pending.add(path);
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                            register(path); // New subfolders are watched too
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    synchronized (watchedDirs) {
+                        watchedDirs.remove(key); // The folder itself is gone
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void apply(boolean overflow, Set<Path> pending) throws InterruptedException {
+        try {
+            LibraryScanner.Result result = overflow ? scanner.rescan() : scanner.reconcile(pending);
+            if (!result.isEmpty()) {
+                onChange.accept(result);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // Keep watching; the next rescan catches up
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,77 @@
+package mytunes;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Looks up Mp3FrameIndex instances: first in a small in-memory LRU, then in the Songs table,
+// and only if neither has one by scanning the file, after which the result is saved to the song row.
+// As a LibraryCache listener it forgets indexes of files that were changed or removed.
+public class FrameIndexStore implements LibraryCache.Listener {
+    private static final int MEMORY_CACHE_SIZE = 64;
+
+    private final Database database;
+    private final Map<String, Mp3FrameIndex> recent = new LinkedHashMap<String, Mp3FrameIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Mp3FrameIndex> eldest) {
+            return size() > MEMORY_CACHE_SIZE;
+        }
+    };
+
+    public FrameIndexStore(Database database) {
+        this.database = database;
+    }
+
+    // May read the file, so call it off the event dispatch thread. Returns null if the file can't be indexed.
+    public Mp3FrameIndex get(Song song) {
+        String filePath = song.getFilePath();
+        synchronized (recent) {
+            Mp3FrameIndex cached = recent.get(filePath);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Mp3FrameIndex index = database.getFrameIndex(filePath);
+        if (index == null) {
+            try {
+                index = Mp3FrameIndex.build(filePath);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            if (song.getId() > 0) {
+                database.saveFrameIndex(filePath, index);
+            }
+        }
+        song.setDurationMs(index.getDurationMs());
+
+        synchronized (recent) {
+            recent.put(filePath, index);
+        }
+        return index;
+    }
+
+    public void invalidate(String filePath) {
+        synchronized (recent) {
+            recent.remove(filePath);
+        }
+    }
+
+    @Override
+    public void songsAdded(List<Song> songs) {
+    }
+
+    @Override
+    public void songsRemoved(List<Song> songs) {
+        for (Song song : songs) {
+            invalidate(song.getFilePath());
+        }
+    }
+
+    @Override
+    public void songUpdated(Song song) {
+        invalidate(song.getFilePath()); // The file may have been rewritten
+    }
+}
@@ -0,0 +1,289 @@
+package mytunes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// In-memory copy of the Songs table. The library is read from the database once;
+// afterwards adds, deletes and edits are written to the Database first and applied to the
+// cache only once they succeed, and listeners are told exactly which songs changed. The lock
+// is never held while the database works, so reads from the EDT don't wait on MySQL.
+public class LibraryCache {
+
+    public interface Listener {
+        void songsAdded(List<Song> songs);
+
+        void songsRemoved(List<Song> songs);
+
+        void songUpdated(Song song);
+    }
+
+    private final Database database;
+    private final List<Song> songs = new ArrayList<>();
+    private final Map<Integer, Song> songsById = new HashMap<>();
+    private final Map<String, Song> songsByPath = new HashMap<>();
+    private final Map<String, Song> songsByAudioHash = new HashMap<>(); // first song seen with each hash
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public LibraryCache(Database database) {
+        this.database = database;
+        reload();
+    }
+
+    // Re-reads the whole library; only needed if the database was changed behind our back
+    public synchronized void reload() {
+        songs.clear();
+        songsById.clear();
+        songsByPath.clear();
+        songsByAudioHash.clear();
+        database.forEachSong(this::index); // Streamed, so the library is never held twice
+    }
+
+    private boolean index(Song song) {
+        if (songsByPath.putIfAbsent(song.getFilePath(), song) != null) {
+            return false;
+        }
+        songs.add(song);
+        if (song.getId() > 0) {
+            songsById.put(song.getId(), song);
+        }
+        indexAudioHash(song);
+        return true;
+    }
+
+    private void indexAudioHash(Song song) {
+        if (song.getAudioHash() != null) {
+            songsByAudioHash.putIfAbsent(song.getAudioHash(), song);
+        }
+    }
+
+    // A copy in library order, so it can be read while the library changes on other threads
+    public synchronized List<Song> getSongs() {
+        return new ArrayList<>(songs);
+    }
+
+    public synchronized Song getById(int id) {
+        return songsById.get(id);
+    }
+
+    public synchronized Song getByPath(String filePath) {
+        return songsByPath.get(filePath);
+    }
+
+    // A library song with exactly this audio, or null
+    public synchronized Song getByAudioHash(String audioHash) {
+        Song song = songsByAudioHash.get(audioHash);
+        if (song != null && (!audioHash.equals(song.getAudioHash()) || songsByPath.get(song.getFilePath()) != song)) {
+            songsByAudioHash.remove(audioHash); // Re-read or removed since it was indexed
+            return null;
+        }
+        return song;
+    }
+
+    public synchronized boolean contains(String filePath) {
+        return songsByPath.containsKey(filePath);
+    }
+
+    public synchronized int size() {
+        return songs.size();
+    }
+
+    public boolean addSong(Song song) {
+        return !addSongs(Collections.singletonList(song)).isEmpty();
+    }
+
+    // Adds the songs that are not in the library yet with one batched insert.
+    // Returns the songs that were actually added.
+    public List<Song> addSongs(Collection<Song> newSongs) {
+        List<Song> inserted = new ArrayList<>();
+        synchronized (this) {
+            Map<String, Song> seen = new HashMap<>();
+            for (Song song : newSongs) {
+                if (!songsByPath.containsKey(song.getFilePath()) && seen.putIfAbsent(song.getFilePath(), song) == null) {
+                    inserted.add(song);
+                }
+            }
+        }
+        List<Song> added = new ArrayList<>();
+        if (inserted.isEmpty()) {
+            return added;
+        }
+        database.addSongs(inserted);
+        synchronized (this) {
+            for (Song song : inserted) {
+                // Only set once the song's row is committed; another add may have indexed the path meanwhile
+                if (song.getId() > 0 && index(song)) {
+                    added.add(song);
+                }
+            }
+        }
+        if (added.isEmpty()) {
+            return added;
+        }
+        for (Listener listener : listeners) {
+            listener.songsAdded(Collections.unmodifiableList(added));
+        }
+        return added;
+    }
+
+    public boolean removeSong(Song song) {
+        return !removeSongs(Collections.singletonList(song)).isEmpty();
+    }
+
+    // Removes the songs with one batched delete. Returns the songs that were actually removed.
+    public List<Song> removeSongs(Collection<Song> oldSongs) {
+        List<Song> found = new ArrayList<>();
+        synchronized (this) {
+            for (Song song : oldSongs) {
+                Song cached = songsByPath.get(song.getFilePath());
+                if (cached != null) {
+                    found.add(cached);
+                }
+            }
+        }
+        List<Song> removed = new ArrayList<>();
+        if (found.isEmpty() || !database.deleteSongs(found)) {
+            return removed;
+        }
+        synchronized (this) {
+            for (Song song : found) {
+                if (songsByPath.remove(song.getFilePath(), song)) {
+                    removed.add(song);
+                    songsById.remove(song.getId(), song);
+                }
+            }
+            songs.removeAll(new HashSet<>(removed));
+        }
+        for (Listener listener : listeners) {
+            listener.songsRemoved(Collections.unmodifiableList(removed));
+        }
+        return removed;
+    }
+
+    // Saves tags edited on a copy of a library song (see Song.copy), then applies them to the library's song
+    public void updateSong(Song edited) {
+        if (!contains(edited.getFilePath()) || !database.updateSong(edited)) {
+            return;
+        }
+        Song song;
+        synchronized (this) {
+            song = songsByPath.get(edited.getFilePath());
+            if (song == null) {
+                return;
+            }
+            song.copyTagsFrom(edited);
+        }
+        for (Listener listener : listeners) {
+            listener.songUpdated(song);
+        }
+    }
+
+    // Stores what was re-read from library songs' files. The changes come on copies of the songs (see
+    // Song.copy) and are copied into the library's own songs once they are written.
+    public void updateSongFileData(Collection<Song> changed) {
+        List<Song> written = new ArrayList<>();
+        synchronized (this) {
+            for (Song copy : changed) {
+                if (isCopyOfCached(copy)) {
+                    written.add(copy);
+                }
+            }
+        }
+        if (written.isEmpty() || !database.updateSongFileData(written)) {
+            return;
+        }
+        List<Song> updated = new ArrayList<>();
+        synchronized (this) {
+            for (Song copy : written) {
+                if (isCopyOfCached(copy)) { // Not removed or moved while the rows were written
+                    Song song = songsByPath.get(copy.getFilePath());
+                    song.copyFileDataFrom(copy);
+                    indexAudioHash(song);
+                    updated.add(song);
+                }
+            }
+        }
+        for (Song song : updated) {
+            for (Listener listener : listeners) {
+                listener.songUpdated(song);
+            }
+        }
+    }
+
+    private boolean isCopyOfCached(Song copy) {
+        Song song = songsByPath.get(copy.getFilePath());
+        return song != null && song.getId() == copy.getId();
+    }
+
+    // Points songs at the new location of their moved files, keeping their ids, playlists and play
+    // counts. Moves onto a path that is already in the library are skipped. Returns the moved songs.
+    public List<Song> moveSongs(Map<String, String> newPathsByOldPath) {
+        List<Song> sources = new ArrayList<>();
+        List<Song> targets = new ArrayList<>(); // Copies at the new paths, written before the cache changes
+        synchronized (this) {
+            Set<String> newPaths = new HashSet<>();
+            for (Map.Entry<String, String> move : newPathsByOldPath.entrySet()) {
+                Song song = songsByPath.get(move.getKey());
+                if (song == null || songsByPath.containsKey(move.getValue()) || !newPaths.add(move.getValue())) {
+                    continue;
+                }
+                sources.add(song);
+                targets.add(song.copy(move.getValue()));
+            }
+        }
+        List<Song> moved = new ArrayList<>();
+        if (sources.isEmpty() || !database.updateSongFileData(targets)) {
+            return moved;
+        }
+        synchronized (this) {
+            for (int i = 0; i < sources.size(); i++) {
+                Song song = sources.get(i);
+                String newPath = targets.get(i).getFilePath();
+                if (songsByPath.get(song.getFilePath()) != song || songsByPath.containsKey(newPath)) {
+                    continue; // Removed or taken by another change while the rows were written
+                }
+                songsByPath.remove(song.getFilePath());
+                song.setFilePath(newPath);
+                songsByPath.put(newPath, song);
+                moved.add(song);
+            }
+        }
+        for (Song song : moved) {
+            for (Listener listener : listeners) {
+                listener.songUpdated(song);
+            }
+        }
+        return moved;
+    }
+
+    // Stores audio hashes computed for songs already in the library. The hashes come on copies of
+    // the songs (see Song.copy) and reach the library's own songs once they are written.
+    public void saveAudioHashes(Collection<Song> hashed) {
+        if (hashed.isEmpty() || !database.saveAudioHashes(hashed)) {
+            return;
+        }
+        synchronized (this) {
+            for (Song copy : hashed) {
+                Song song = songsById.get(copy.getId());
+                if (song != null) {
+                    song.setAudioHash(copy.getAudioHash());
+                    indexAudioHash(song);
+                }
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
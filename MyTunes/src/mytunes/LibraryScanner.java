@@ -0,0 +1,309 @@
+package mytunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the library in step with the files on disk. A rescan compares every song's stored file size
+// and modification time with the file system and re-reads only the files that changed, then walks the
+// watched folders for files that are new. Files that disappeared are matched against new files with
+// the same size and time, so a move keeps the song's id, playlists and play count. The rest are removed,
+// except files outside every watched folder whose folder is gone too, which may be on an unmounted drive.
+// All changes are applied in batches through the LibraryCache. FolderWatcher feeds live changes
+// through reconcile(). Everything here blocks, so call it off the event dispatch thread.
+public class LibraryScanner {
+    private static final int BATCH_SIZE = 500;
+
+    private final LibraryCache libraryCache;
+    private final Database database;
+    private final MetadataExtractor metadataExtractor;
+
+    // What a rescan or reconcile changed
+    public static class Result {
+        private int checked;
+        private int changed;
+        private int added;
+        private int moved;
+        private int removed;
+        private long elapsedMillis;
+
+        public int getChecked() {
+            return checked;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getMoved() {
+            return moved;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public boolean isEmpty() {
+            return changed == 0 && added == 0 && moved == 0 && removed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files checked in %d ms: %d changed, %d added, %d moved, %d removed",
+                    checked, elapsedMillis, changed, added, moved, removed);
+        }
+    }
+
+    public LibraryScanner(LibraryCache libraryCache, Database database, MetadataExtractor metadataExtractor) {
+        this.libraryCache = libraryCache;
+        this.database = database;
+        this.metadataExtractor = metadataExtractor;
+    }
+
+    public List<String> getWatchedFolders() {
+        return database.getWatchedFolders();
+    }
+
+    public void addWatchedFolder(File folder) {
+        database.addWatchedFolder(folder.getAbsolutePath());
+    }
+
+    public void removeWatchedFolder(String folder) {
+        database.removeWatchedFolder(folder);
+    }
+
+    // Checks the whole library plus the watched folders. With nothing changed this only costs one
+    // stat per song and one directory walk, so large libraries rescan in seconds.
+    public Result rescan() throws InterruptedException {
+        long start = System.nanoTime();
+        Changes changes = new Changes();
+        for (Song song : libraryCache.getSongs()) {
+            changes.check(song);
+        }
+        for (Path folder : changes.watchedFolders) {
+            walkForNewFiles(folder, changes);
+        }
+        return apply(changes, start);
+    }
+
+    // Applies changes to individual paths, as reported by the file system. A path may be a file or a
+    // folder that was created, modified or deleted.
+    public Result reconcile(Collection<Path> paths) throws InterruptedException {
+        long start = System.nanoTime();
+        Changes changes = new Changes();
+        List<String> folderPrefixes = new ArrayList<>();
+        for (Path path : paths) {
+            Song song = libraryCache.getByPath(path.toString());
+            if (song != null) {
+                changes.check(song);
+            } else if (Files.isDirectory(path)) {
+                walkForNewFiles(path, changes); // A folder moved or copied in
+            } else if (Files.isRegularFile(path)) {
+                changes.checkNewFile(path);
+            } else {
+                folderPrefixes.add(path + File.separator); // Possibly a folder that was deleted or moved away
+            }
+        }
+        if (!folderPrefixes.isEmpty()) {
+            for (Song song : libraryCache.getSongs()) {
+                for (String prefix : folderPrefixes) {
+                    if (song.getFilePath().startsWith(prefix)) {
+                        changes.check(song);
+                        break;
+                    }
+                }
+            }
+        }
+        return apply(changes, start);
+    }
+
+    private void walkForNewFiles(Path folder, Changes changes) {
+        if (!Files.isDirectory(folder)) {
+            return; // Unmounted or deleted; its songs are handled by the size/time check
+        }
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && FolderImporter.isMp3(file) && !libraryCache.contains(file.toString())) {
+                        changes.newFiles.put(file.toString(), attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Result apply(Changes changes, long startNanos) throws InterruptedException {
+        Result result = new Result();
+        result.checked = changes.checked;
+
+        // Songs imported before sizes were stored get them now, without re-reading their tags
+        if (!changes.unstamped.isEmpty()) {
+            libraryCache.updateSongFileData(changes.unstamped);
+        }
+
+        // A missing file and a new file with the same size and time is a move
+        Map<String, String> moves = new LinkedHashMap<>();
+        Map<String, Song> missingByStamp = new HashMap<>();
+        List<Song> moveCandidates = new ArrayList<>(changes.missing);
+        moveCandidates.addAll(changes.unavailable);
+        for (Song song : moveCandidates) {
+            if (song.getFileSize() > 0) {
+                missingByStamp.put(stamp(song.getFileSize(), song.getFileModified()), song);
+            }
+        }
+        if (!missingByStamp.isEmpty()) {
+            changes.newFiles.entrySet().removeIf(entry -> {
+                BasicFileAttributes attrs = entry.getValue();
+                Song song = missingByStamp.remove(stamp(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                if (song == null) {
+                    return false;
+                }
+                moves.put(song.getFilePath(), entry.getKey());
+                return true;
+            });
+        }
+        List<Song> movedSongs = libraryCache.moveSongs(moves);
+        result.moved = movedSongs.size();
+        changes.missing.removeAll(movedSongs);
+
+        // Changed files are re-read in parallel and written back a batch at a time
+        for (int from = 0; from < changes.changed.size(); from += BATCH_SIZE) {
+            List<Song> batch = changes.changed.subList(from, Math.min(from + BATCH_SIZE, changes.changed.size()));
+            List<File> files = new ArrayList<>(batch.size());
+            for (Song song : batch) {
+                files.add(new File(song.getFilePath()));
+            }
+            List<Song> extracted = metadataExtractor.extractAll(files);
+            List<Song> updated = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Song song = batch.get(i).copy(batch.get(i).getFilePath()); // The cache's own song changes once stored
+                song.copyFileDataFrom(extracted.get(i));
+                updated.add(song);
+            }
+            libraryCache.updateSongFileData(updated);
+        }
+        result.changed = changes.changed.size();
+
+        List<File> newFiles = new ArrayList<>(changes.newFiles.size());
+        for (String path : changes.newFiles.keySet()) {
+            newFiles.add(new File(path));
+        }
+        for (int from = 0; from < newFiles.size(); from += BATCH_SIZE) {
+            List<File> batch = newFiles.subList(from, Math.min(from + BATCH_SIZE, newFiles.size()));
+            result.added += libraryCache.addSongs(metadataExtractor.extractAll(batch)).size();
+        }
+
+        for (int from = 0; from < changes.missing.size(); from += BATCH_SIZE) {
+            result.removed += libraryCache.removeSongs(changes.missing.subList(from, Math.min(from + BATCH_SIZE, changes.missing.size()))).size();
+        }
+
+        result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    private static String stamp(long size, long modified) {
+        return size + "/" + modified;
+    }
+
+    // The differences found between the library and the file system
+    private class Changes {
+        final List<Song> changed = new ArrayList<>();
+        final List<Song> unstamped = new ArrayList<>(); // copies carrying the size and time to store
+        final List<Song> missing = new ArrayList<>();
+        final List<Song> unavailable = new ArrayList<>(); // gone, but maybe only unmounted: kept unless moved
+        final List<Path> watchedFolders = new ArrayList<>();
+        final Map<String, BasicFileAttributes> newFiles = new LinkedHashMap<>();
+        int checked;
+
+        Changes() {
+            for (String folder : getWatchedFolders()) {
+                Path path = Paths.get(folder);
+                if (Files.isDirectory(path)) {
+                    watchedFolders.add(path);
+                }
+            }
+        }
+
+        void check(Song song) {
+            checked++;
+            Path path = Paths.get(song.getFilePath());
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // A file is only really gone if its folder, or the watched folder it was in, is still
+                // there; otherwise the drive may just be unmounted
+                Path parent = path.getParent();
+                if ((parent != null && Files.isDirectory(parent)) || isInWatchedFolder(path)) {
+                    missing.add(song);
+                } else {
+                    unavailable.add(song);
+                }
+                return;
+            } catch (IOException e) {
+                return; // Unreadable right now; try again on the next scan
+            }
+
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (song.getFileSize() <= 0) {
+                Song stamped = song.copy(song.getFilePath());
+                stamped.setFileSize(size);
+                stamped.setFileModified(modified);
+                unstamped.add(stamped);
+            } else if (song.getFileSize() != size || song.getFileModified() != modified) {
+                changed.add(song);
+            }
+        }
+
+        private boolean isInWatchedFolder(Path path) {
+            for (Path folder : watchedFolders) {
+                if (path.startsWith(folder)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void checkNewFile(Path file) {
+            if (!FolderImporter.isMp3(file)) {
+                return;
+            }
+            try {
+                newFiles.put(file.toString(), Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (IOException e) {
+                // Gone again already
+            }
+        }
+    }
+}
@@ -1,100 +1,549 @@
 package mytunes;
 
-import javazoom.jl.decoder.Bitstream;
-import javazoom.jl.decoder.BitstreamException;
-import javazoom.jl.decoder.Header;
-import javazoom.jl.player.advanced.AdvancedPlayer;
-
-import javax.sound.sampled.*;
-import java.io.FileInputStream;
+import javax.sound.sampled.AudioFormat;
 import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// Plays MP3 files through a Channel of the shared AudioOutput. Each player has exactly one worker
+// thread, started with the player and ended by close(). The public methods only queue a command;
+// the worker applies commands in order between frames, so rapid clicks can never leave two
+// decoders running, and it owns all decoding state without locks.
+//
+// The file and decoder stay open while paused, so resuming is instant, and seek() repositions the
+// open file at the indexed byte offset instead of decoding from the start.
+//
+// In gapless mode the track set with setNextTrack() is opened and its first seconds decoded into a
+// ring buffer whenever the output buffer is full. When the current track reaches the end of its
+// stream the worker switches decoders without a break in the output, and reports the change
+// through the Listener.
 public class MP3Player {
-    private AdvancedPlayer player;
-    private Thread playbackThread;
-    private int playedFrames;
-    private boolean isPaused;
+    private static final int PREFETCH_MILLIS = 2000;
+    private static final int PREFETCH_BYTES = 48000 * 4 * PREFETCH_MILLIS / 1000; // 48 kHz, 16-bit stereo
+    private static final int MAX_FRAME_BYTES = 1152 * 4;                          // one stereo Layer III frame
+    private static final int CHUNK_BYTES = 4096;
+    private static final int OUTPUT_BUFFER_BYTES = 48000 * 4 / 4;                 // 250 ms at 48 kHz stereo
+    private static final long IDLE_POLL_MILLIS = 5;
+
+    private static final AtomicInteger playerCount = new AtomicInteger();
+
+    public enum State { STOPPED, PLAYING, PAUSED, CLOSED }
+
+    // Called on the player's worker thread; UI code should hand off to the EDT
+    public interface Listener {
+        void stateChanged(State state);
+
+        // Playback moved on to the track given to setNextTrack() without a gap
+        void trackStarted(String filePath);
+
+        // The track played to its end and there was no next track to continue with
+        void playbackEnded(String filePath);
+    }
+
+    private enum CommandType { PLAY, PAUSE, RESUME, SEEK, STOP, SET_INDEX, SET_NEXT, CLOSE }
+
+    private static class Command {
+        final CommandType type;
+        final String filePath;
+        final Mp3FrameIndex frameIndex;
+        final long millis;
+
+        Command(CommandType type, String filePath, Mp3FrameIndex frameIndex, long millis) {
+            this.type = type;
+            this.filePath = filePath;
+            this.frameIndex = frameIndex;
+            this.millis = millis;
+        }
+    }
+
+    private final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+    private final AudioOutput.Channel channel;
+    private final Thread worker;
+    private volatile State state = State.STOPPED;
+    private volatile boolean gapless;
+    private volatile Listener listener;
+    private volatile DecodeMetrics decodeMetrics;
+    private volatile long positionMs;   // position of the audio currently being heard
+
+    // Owned by the worker thread
+    private TrackDecoder decoder;
+    private AudioFormat format;         // the decoder's output format, known once its first frame is decoded
     private String filePath;
-    private SourceDataLine dataLine;
+    private Command pendingPlay;        // the last PLAY of a batch of commands; opened once the batch is done
+    private long pendingSeekMs = -1;
+    private NextTrack nextTrack;
+    private PcmRingBuffer pending;      // audio pre-decoded before we switched to this track
+    private final byte[] chunk = new byte[CHUNK_BYTES];
+    private byte[] out;                 // PCM not yet taken by the channel
+    private int outOffset;
+    private int outLength;
+    private boolean draining;           // at end of stream, waiting for the channel to play out
+    private long drainDeadline;         // when the line will have played the last of it
+
+    public MP3Player() {
+        this(AudioOutput.getShared());
+    }
+
+    public MP3Player(AudioOutput output) {
+        channel = output.openChannel(new PcmRingBuffer(OUTPUT_BUFFER_BYTES));
+        channel.setVolume(50);
+        worker = new Thread(this::run, "MP3Player-" + playerCount.incrementAndGet());
+        worker.setDaemon(true);
+        worker.start();
+    }
 
     public void play(String filePath) {
-        this.filePath = filePath;
-        playedFrames = 0;
-        isPaused = false;
-        startPlayback(playedFrames);
+        play(filePath, null);
+    }
+
+    // The frame index lets seek() jump straight to the right byte offset; it may also be supplied later
+    public void play(String filePath, Mp3FrameIndex frameIndex) {
+        send(new Command(CommandType.PLAY, filePath, frameIndex, 0));
+    }
+
+    // Applies to the current, about to be played or next track with this path
+    public void setFrameIndex(String filePath, Mp3FrameIndex frameIndex) {
+        send(new Command(CommandType.SET_INDEX, filePath, frameIndex, 0));
+    }
+
+    // The track to play after the current one; null clears it
+    public void setNextTrack(String filePath) {
+        send(new Command(CommandType.SET_NEXT, filePath, null, 0));
+    }
+
+    public void setGapless(boolean gapless) {
+        this.gapless = gapless;
+    }
+
+    public boolean isGapless() {
+        return gapless;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Measures every frame this player decodes, including the next track's; null turns it off
+    public void setDecodeMetrics(DecodeMetrics metrics) {
+        this.decodeMetrics = metrics;
     }
 
     public void stop() {
-        if (player != null) {
-            player.close();
-        }
-        playedFrames = 0;
-        isPaused = false;
+        send(new Command(CommandType.STOP, null, null, 0));
     }
 
     public void pause() {
-        if (player != null && !isPaused) {
-            isPaused = true;
-            player.close();
-        }
+        send(new Command(CommandType.PAUSE, null, null, 0));
     }
 
     public void unpause() {
-        if (isPaused) {
-            isPaused = false;
-            startPlayback(playedFrames);
-        }
+        send(new Command(CommandType.RESUME, null, null, 0));
     }
 
-    private void startPlayback(int startFrame) {
-        playbackThread = new Thread(() -> {
-            try (FileInputStream fis = new FileInputStream(filePath)) {
-                setupAudioLine(); // Setup the audio line for volume control
-                player = new AdvancedPlayer(fis);
-                player.play(startFrame, Integer.MAX_VALUE); // Play from startFrame to the end
-            } catch (Exception e) {
-                e.printStackTrace();
+    // Jumps to the given position; works while playing or paused
+    public void seek(long millis) {
+        send(new Command(CommandType.SEEK, null, null, Math.max(0, millis)));
+    }
+
+    // Stops playback, ends the worker thread and gives the channel back to the audio engine
+    public void close() {
+        send(new Command(CommandType.CLOSE, null, null, 0));
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        });
-        playbackThread.start();
+        }
+    }
+
+    private void send(Command command) {
+        if (state != State.CLOSED) {
+            commands.add(command);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getPositionMs() {
+        return positionMs;
+    }
+
+    public boolean isPaused() {
+        return state == State.PAUSED;
+    }
+
+    public boolean isPlaying() {
+        return state == State.PLAYING;
+    }
+
+    public long getUnderrunCount() {
+        return channel.getUnderrunCount();
     }
 
     public void setVolume(int volume) {
-        if (dataLine != null) {
-            FloatControl volumeControl = (FloatControl) dataLine.getControl(FloatControl.Type.MASTER_GAIN);
-            float min = volumeControl.getMinimum();
-            float max = volumeControl.getMaximum();
-            float gain = (max - min) * (volume / 100.0f) + min;
-            volumeControl.setValue(gain);
+        channel.setVolume(volume);
+    }
+
+    private void run() {
+        boolean idle = true;
+        try {
+            while (state != State.CLOSED) {
+                // Block while there is nothing to play; otherwise only look for commands between steps
+                Command command;
+                if (state != State.PLAYING) {
+                    command = commands.take();
+                } else if (idle) {
+                    command = commands.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    command = commands.poll();
+                }
+                while (command != null) {
+                    handle(command);
+                    command = commands.poll();
+                }
+                if (pendingPlay != null) {
+                    open(pendingPlay);
+                }
+                idle = state != State.PLAYING || !step();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeDecoder();
+            closeNextTrack();
+            channel.close();
+        }
+    }
+
+    private void handle(Command command) {
+        switch (command.type) {
+            case PLAY:
+                reset();
+                pendingPlay = command;  // A later PLAY in the same batch replaces this one unopened
+                pendingSeekMs = -1;
+                closeNextTrack();       // The caller queues the track that follows this one
+                setState(State.PLAYING);
+                break;
+            case PAUSE:
+                if (state == State.PLAYING) {
+                    channel.pause(); // Decoded audio is kept for resume
+                    setState(State.PAUSED);
+                }
+                break;
+            case RESUME:
+                if (state == State.PAUSED) {
+                    channel.start();
+                    setState(State.PLAYING);
+                }
+                break;
+            case SEEK:
+                if (pendingPlay != null) {
+                    pendingSeekMs = command.millis;
+                } else if (decoder != null) {
+                    seekTo(command.millis);
+                }
+                break;
+            case STOP:
+                reset();
+                pendingPlay = null;
+                positionMs = 0;
+                setState(State.STOPPED);
+                break;
+            case SET_INDEX:
+                if (decoder != null && command.filePath.equals(filePath)) {
+                    decoder.setFrameIndex(command.frameIndex);
+                }
+                if (pendingPlay != null && pendingPlay.filePath.equals(command.filePath) && pendingPlay.frameIndex == null) {
+                    pendingPlay = new Command(CommandType.PLAY, pendingPlay.filePath, command.frameIndex, 0);
+                }
+                if (nextTrack != null && nextTrack.filePath.equals(command.filePath)) {
+                    nextTrack.setFrameIndex(command.frameIndex);
+                }
+                break;
+            case SET_NEXT:
+                if (nextTrack == null || !nextTrack.filePath.equals(command.filePath)) {
+                    closeNextTrack();
+                    if (command.filePath != null) {
+                        nextTrack = new NextTrack(command.filePath);
+                    }
+                }
+                break;
+            case CLOSE:
+                reset();
+                pendingPlay = null;
+                setState(State.CLOSED);
+                break;
         }
     }
 
-    private void setupAudioLine() throws LineUnavailableException {
-        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
-        DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-        dataLine = (SourceDataLine) AudioSystem.getLine(info);
-        dataLine.open(format);
-        dataLine.start();
+    // Silences the channel and drops the current track
+    private void reset() {
+        channel.pause();
+        channel.flush();
+        closeDecoder();
+        pending = null;
+        outLength = 0;
+        draining = false;
     }
 
-    public int getSongDuration(String filePath) {
-        try (FileInputStream fis = new FileInputStream(filePath)) {
-            Bitstream bitstream = new Bitstream(fis);
-            Header header;
-            int totalFrames = 0;
-            float msPerFrame = 0;
-
-            while ((header = bitstream.readFrame()) != null) {
-                totalFrames++;
-                msPerFrame = header.ms_per_frame();
-                bitstream.closeFrame();
+    private void open(Command play) {
+        pendingPlay = null;
+        try {
+            decoder = new TrackDecoder(play.filePath, play.frameIndex);
+            format = null;
+            filePath = play.filePath;
+            positionMs = 0;
+            if (pendingSeekMs >= 0) {
+                seekTo(pendingSeekMs);
+                pendingSeekMs = -1;
+            }
+            if (state == State.PLAYING) {
+                channel.start();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            setState(State.STOPPED);
+        }
+    }
+
+    private void seekTo(long millis) {
+        try {
+            decoder.seek(millis);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        channel.flush();
+        pending = null;
+        outLength = 0;
+        draining = false;
+        positionMs = decoder.getPositionMs();
+    }
+
+    // Moves playback forward by at most one frame or chunk; returns false if nothing could be done
+    private boolean step() {
+        if (draining) {
+            if (channel.isEmpty() && drainDeadline == 0) {
+                // Other channels may keep the line busy, so wait out what was buffered rather than for silence
+                drainDeadline = System.currentTimeMillis() + channel.getBufferedMillis();
             }
+            if (drainDeadline != 0 && System.currentTimeMillis() >= drainDeadline) {
+                draining = false;
+                String ended = filePath;
+                closeDecoder();
+                channel.pause();
+                positionMs = 0;
+                setState(State.STOPPED);
+                Listener l = listener;
+                if (l != null) {
+                    l.playbackEnded(ended);
+                }
+            }
+            return prefetchStep();
+        }
+        if (outLength == 0 && !fill()) {
+            return false;
+        }
+        if (outLength == 0) {
+            return true; // Encoder delay or padding, or a track change
+        }
+        if (!formatReady()) {
+            return prefetchStep();
+        }
+
+        int written = channel.offer(out, outOffset, outLength);
+        outOffset += written;
+        outLength -= written;
+        if (written > 0) {
+            int pendingBytes = (pending != null ? pending.available() : 0) + outLength;
+            long pendingMs = (long) pendingBytes * 1000 / ((long) decoder.getSampleRate() * decoder.getChannels() * 2);
+            positionMs = Math.max(0, decoder.getPositionMs() - pendingMs - channel.getBufferedMillis());
+            return true;
+        }
+        return prefetchStep(); // Output is full: use the time to decode ahead into the next track
+    }
 
-            int totalMs = (int) (totalFrames * msPerFrame);
-            return totalMs / 1000;
-        } catch (BitstreamException | IOException e) {
+    // Takes the next block of PCM into out; returns false once the track has ended
+    private boolean fill() {
+        try {
+            if (pending != null && pending.available() > 0) {
+                out = chunk;
+                outOffset = 0;
+                outLength = pending.read(chunk, 0, chunk.length);
+                return true;
+            }
+            pending = null;
+
+            decoder.setDecodeMetrics(decodeMetrics);
+            int length = decoder.decodeFrame();
+            if (length >= 0) {
+                out = decoder.getPcm();
+                outOffset = decoder.getPcmOffset();
+                outLength = length;
+                return true;
+            }
+            if (gapless && nextTrack != null && nextTrack.open()) {
+                switchToNextTrack();
+                return true;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        draining = true;
+        drainDeadline = 0;
+        channel.markEndOfStream();
+        return false;
+    }
+
+    private void switchToNextTrack() {
+        NextTrack next = nextTrack;
+        nextTrack = null;
+        closeDecoder();
+        decoder = next.decoder;
+        format = null;
+        filePath = next.filePath;
+        pending = next.buffer;
+        Listener l = listener;
+        if (l != null) {
+            l.trackStarted(filePath);
+        }
+    }
+
+    // A different format means the previous track must be heard to the end on its own line first
+    private boolean formatReady() {
+        AudioFormat current = channel.getFormat();
+        if (current != null && current == format) {
+            return true;
+        }
+        if (format == null) {
+            format = new AudioFormat(decoder.getSampleRate(), 16, decoder.getChannels(), true, false);
+        }
+        if (current != null && current.matches(format)) {
+            format = current; // Compared by reference from now on
+            return true;
+        }
+        if (current != null && !channel.isEmpty()) {
+            channel.markEndOfStream();
+            return false;
+        }
+        try {
+            channel.setFormat(format);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            reset();
+            setState(State.STOPPED);
+            return false;
+        }
+    }
+
+    private boolean prefetchStep() {
+        if (!gapless || nextTrack == null) {
+            return false;
+        }
+        return nextTrack.decodeAhead(decodeMetrics);
+    }
+
+    private void closeDecoder() {
+        if (decoder != null) {
+            decoder.close();
+            decoder = null;
+        }
+    }
+
+    private void closeNextTrack() {
+        if (nextTrack != null) {
+            nextTrack.close();
+            nextTrack = null;
+        }
+    }
+
+    private void setState(State newState) {
+        if (state == newState) {
+            return;
+        }
+        state = newState;
+        Listener l = listener;
+        if (l != null) {
+            l.stateChanged(newState);
+        }
+    }
+
+    // Reads only the frame headers (or the Xing/VBRI header when present); nothing is decoded
+    public int getSongDuration(String filePath) {
+        try {
+            return Mp3FrameIndex.build(filePath).getDurationMs() / 1000;
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return 0;
     }
+
+    // The upcoming track, opened and decoded up to PREFETCH_MILLIS ahead by the worker when it has
+    // nothing better to do
+    private static class NextTrack {
+        final String filePath;
+        final PcmRingBuffer buffer = new PcmRingBuffer(PREFETCH_BYTES);
+        private Mp3FrameIndex frameIndex;
+        private TrackDecoder decoder;
+        private boolean ended;
+        private boolean failed;
+
+        NextTrack(String filePath) {
+            this.filePath = filePath;
+        }
+
+        void setFrameIndex(Mp3FrameIndex frameIndex) {
+            if (decoder != null) {
+                decoder.setFrameIndex(frameIndex);
+            } else {
+                this.frameIndex = frameIndex;
+            }
+        }
+
+        boolean open() {
+            if (decoder == null && !failed) {
+                try {
+                    decoder = new TrackDecoder(filePath, frameIndex);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+            return decoder != null;
+        }
+
+        // Decodes one frame into the buffer; returns false if there was nothing to do
+        boolean decodeAhead(DecodeMetrics metrics) {
+            if (ended || buffer.free() < MAX_FRAME_BYTES || !open()) {
+                return false;
+            }
+            try {
+                decoder.setDecodeMetrics(metrics);
+                int length = decoder.decodeFrame();
+                if (length < 0) {
+                    ended = true;
+                    return false;
+                }
+                buffer.write(decoder.getPcm(), decoder.getPcmOffset(), length);
+                return true;
+            } catch (Exception e) {
+                e.printStackTrace();
+                ended = true;
+                return false;
+            }
+        }
+
+        void close() {
+            if (decoder != null) {
+                decoder.close();
+                decoder = null;
+            }
+        }
+    }
 }
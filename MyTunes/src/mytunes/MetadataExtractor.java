@@ -0,0 +1,234 @@
+package mytunes;
+
+import com.mpatric.mp3agic.ID3v1;
+import com.mpatric.mp3agic.Mp3File;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Builds Song objects for imported files from their ID3v2 or ID3v1 tags (via mp3agic), plus the
+// duration, average bitrate and sample rate from a header-only Mp3FrameIndex scan. Files are parsed
+// on a fixed pool of one worker per core; call extractAll() off the event dispatch thread.
+// With audio hashing on, the same frame scan also computes the song's audio hash, at the cost of
+// reading the whole file instead of only the frame headers.
+public class MetadataExtractor implements AutoCloseable {
+    private static final int TAG_BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger extractorCount = new AtomicInteger();
+
+    private final ExecutorService workers;
+    private final int threads;
+    private final Stats stats = new Stats();
+    private volatile boolean hashingAudio;
+
+    // Per-file parse times, across every file this extractor has handled
+    public static class Stats {
+        private int files;
+        private int failures;
+        private long totalNanos;
+        private long maxNanos;
+        private String slowestFile;
+
+        synchronized void record(String filePath, long nanos, boolean failed) {
+            files++;
+            if (failed) {
+                failures++;
+            }
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+                slowestFile = filePath;
+            }
+        }
+
+        public synchronized int getFiles() {
+            return files;
+        }
+
+        public synchronized int getFailures() {
+            return failures;
+        }
+
+        public synchronized double getAverageMillis() {
+            return files == 0 ? 0 : totalNanos / 1e6 / files;
+        }
+
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        public synchronized String getSlowestFile() {
+            return slowestFile;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d files parsed (%d without readable tags), %.1f ms/file average, slowest %.1f ms (%s)",
+                    files, failures, getAverageMillis(), getMaxMillis(), slowestFile);
+        }
+    }
+
+    public MetadataExtractor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MetadataExtractor(int threads) {
+        this.threads = Math.max(1, threads);
+        int id = extractorCount.incrementAndGet();
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "MetadataExtractor-" + id + "-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isHashingAudio() {
+        return hashingAudio;
+    }
+
+    public void setHashingAudio(boolean hashingAudio) {
+        this.hashingAudio = hashingAudio;
+    }
+
+    // Parses the files in parallel; the result is in input order. At most a few files per worker
+    // are queued at a time, so huge imports don't build up a queue of pending tasks.
+    public List<Song> extractAll(List<File> files) throws InterruptedException {
+        return mapAll(files, this::extract);
+    }
+
+    // Audio hashes of the files, in input order, computed in parallel; null for a file that can't be read
+    public List<String> hashAll(List<File> files) throws InterruptedException {
+        return mapAll(files, MetadataExtractor::hashAudio);
+    }
+
+    private <T> List<T> mapAll(List<File> files, Function<File, T> task) throws InterruptedException {
+        List<T> results = new ArrayList<>(Collections.nCopies(files.size(), null));
+        ExecutorCompletionService<Integer> completion = new ExecutorCompletionService<>(workers);
+        int maxInFlight = threads * 4;
+        int submitted = 0;
+        int completed = 0;
+        while (completed < files.size()) {
+            while (submitted < files.size() && submitted - completed < maxInFlight) {
+                int i = submitted++;
+                completion.submit(() -> {
+                    results.set(i, task.apply(files.get(i)));
+                    return i;
+                });
+            }
+            Future<Integer> done = completion.take();
+            try {
+                done.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace(); // The tasks do not throw, so this is a bug
+            }
+            completed++;
+        }
+        return results;
+    }
+
+    // Reads one file on the calling thread. Missing or unreadable tags leave Song.fromFile's defaults.
+    public Song extract(File file) {
+        long start = System.nanoTime();
+        Song defaults = Song.fromFile(file);
+        Song song = Song.fromFile(file);
+        song.setFileSize(file.length()); // Read first, so a later change to the file is never missed
+        song.setFileModified(file.lastModified());
+        boolean failed = false;
+
+        try {
+            Mp3File mp3 = new Mp3File(file.getPath(), TAG_BUFFER_SIZE, false); // Tags only; no frame scan
+            ID3v1 tag = mp3.hasId3v2Tag() ? mp3.getId3v2Tag() : mp3.hasId3v1Tag() ? mp3.getId3v1Tag() : null;
+            if (tag != null) {
+                applyTag(song, tag, defaults);
+                if (mp3.hasId3v2Tag() && mp3.hasId3v1Tag()) {
+                    applyTag(song, mp3.getId3v1Tag(), defaults); // Fills only what the ID3v2 tag left empty
+                }
+            }
+        } catch (Exception e) {
+            failed = true; // Not an MP3 mp3agic understands, or a damaged tag
+        }
+
+        try {
+            MessageDigest digest = hashingAudio ? newAudioDigest() : null;
+            Mp3FrameIndex index = Mp3FrameIndex.build(file.getPath(), digest);
+            if (digest != null) {
+                song.setAudioHash(HexFormat.of().formatHex(digest.digest()));
+            }
+            song.setDurationMs(index.getDurationMs());
+            song.setBitrateKbps(index.getBitrateKbps());
+            song.setSampleRate(index.getSampleRate());
+        } catch (Exception e) {
+            failed = true;
+        }
+
+        stats.record(file.getPath(), System.nanoTime() - start, failed);
+        return song;
+    }
+
+    // Reads one file on the calling thread
+    public static String hashAudio(File file) {
+        try {
+            MessageDigest digest = newAudioDigest();
+            Mp3FrameIndex.build(file.getPath(), digest);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest newAudioDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JDK has SHA-256
+        }
+    }
+
+    // Copies the tag's fields over the defaults; fields already taken from another tag are kept
+    private static void applyTag(Song song, ID3v1 tag, Song defaults) {
+        if (isSet(tag.getTitle()) && song.getTitle().equals(defaults.getTitle())) {
+            song.setTitle(tag.getTitle().trim());
+        }
+        if (isSet(tag.getArtist()) && song.getArtist().equals(defaults.getArtist())) {
+            song.setArtist(tag.getArtist().trim());
+        }
+        if (isSet(tag.getAlbum()) && song.getAlbum().equals(defaults.getAlbum())) {
+            song.setAlbum(tag.getAlbum().trim());
+        }
+        if (isSet(tag.getYear()) && song.getYear().equals(defaults.getYear())) {
+            song.setYear(tag.getYear().trim());
+        }
+        if (isSet(tag.getGenreDescription()) && song.getGenre().equals(defaults.getGenre())) {
+            song.setGenre(tag.getGenreDescription().trim());
+        }
+        if (isSet(tag.getComment()) && song.getComment().equals(defaults.getComment())) {
+            song.setComment(tag.getComment().trim());
+        }
+    }
+
+    private static boolean isSet(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
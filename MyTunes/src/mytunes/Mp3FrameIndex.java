@@ -0,0 +1,502 @@
+package mytunes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+// Duration and seek table for one MP3 file, built from frame headers only (nothing is decoded).
+// If the first frame carries a Xing/Info or VBRI header the frame count is read from it directly;
+// otherwise the file is scanned once, header to header, recording the byte offset of every
+// SEEK_INTERVAL-th frame. The index is small enough to be stored with the song row.
+// Given a MessageDigest, the same pass also hashes every audio frame (header and body, but not
+// tags or the Xing/Info frame), which identifies the audio regardless of how the file is tagged.
+public class Mp3FrameIndex {
+
+    public static final int SEEK_INTERVAL = 16; // frames between seek table entries
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int[][] BITRATES = {
+            // MPEG-1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG-2/2.5 layer I, II & III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+    };
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000},  // MPEG-2.5
+            {0, 0, 0},             // reserved
+            {22050, 24000, 16000}, // MPEG-2
+            {44100, 48000, 32000}, // MPEG-1
+    };
+
+    private final int sampleRate;
+    private final int samplesPerFrame;
+    private final int frameCount;
+    private final long firstFrameOffset;
+    private final long audioBytes;
+    private final int encoderDelay;
+    private final int encoderPadding;
+    // Exact offsets of frames 0, SEEK_INTERVAL, 2*SEEK_INTERVAL, ... (scanned files)
+    private final long[] seekTable;
+    // Xing table of contents: byte position in 1/256ths of the stream for each percent (VBR header files)
+    private final int[] toc;
+
+    private Mp3FrameIndex(int sampleRate, int samplesPerFrame, int frameCount, long firstFrameOffset, long audioBytes,
+                          int encoderDelay, int encoderPadding, long[] seekTable, int[] toc) {
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+        this.frameCount = frameCount;
+        this.firstFrameOffset = firstFrameOffset;
+        this.audioBytes = audioBytes;
+        this.encoderDelay = encoderDelay;
+        this.encoderPadding = encoderPadding;
+        this.seekTable = seekTable;
+        this.toc = toc;
+    }
+
+    // Where playback should resume: the byte offset of a frame at or before the requested time
+    public static class SeekPoint {
+        private final int frame;
+        private final long byteOffset;
+
+        SeekPoint(int frame, long byteOffset) {
+            this.frame = frame;
+            this.byteOffset = byteOffset;
+        }
+
+        public int getFrame() {
+            return frame;
+        }
+
+        public long getByteOffset() {
+            return byteOffset;
+        }
+    }
+
+    // Parsed 4-byte MPEG audio frame header
+    static class FrameHeader {
+        int version;      // 3 = MPEG-1, 2 = MPEG-2, 0 = MPEG-2.5
+        int layer;        // 1, 2 or 3
+        int sampleRate;
+        int samplesPerFrame;
+        int frameSize;
+        boolean mono;
+        int raw;          // the 4 header bytes, big-endian
+
+        // Returns null if the bytes are not a valid frame header
+        static FrameHeader parse(int b1, int b2, int b3, int b4) {
+            if (b1 != 0xFF || (b2 & 0xE0) != 0xE0) {
+                return null;
+            }
+            int version = (b2 >> 3) & 3;
+            int layerBits = (b2 >> 1) & 3;
+            int bitrateIndex = (b3 >> 4) & 0xF;
+            int sampleRateIndex = (b3 >> 2) & 3;
+            if (version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+                return null; // reserved values, or free-format streams which we don't index
+            }
+            FrameHeader h = new FrameHeader();
+            h.version = version;
+            h.layer = 4 - layerBits;
+            h.sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+            h.mono = ((b4 >> 6) & 3) == 3;
+            h.raw = (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+            int padding = (b3 >> 1) & 1;
+            int bitrate = (version == 3 ? BITRATES[h.layer - 1] : BITRATES[h.layer == 1 ? 3 : 4])[bitrateIndex] * 1000;
+            if (h.layer == 1) {
+                h.samplesPerFrame = 384;
+                h.frameSize = (12 * bitrate / h.sampleRate + padding) * 4;
+            } else {
+                h.samplesPerFrame = (h.layer == 3 && version != 3) ? 576 : 1152;
+                h.frameSize = h.samplesPerFrame / 8 * bitrate / h.sampleRate + padding;
+            }
+            return h;
+        }
+
+        // Offset of a Xing/Info header from the start of the frame (after header and side info)
+        int xingOffset() {
+            if (version == 3) {
+                return mono ? 4 + 17 : 4 + 32;
+            }
+            return mono ? 4 + 9 : 4 + 17;
+        }
+    }
+
+    public static Mp3FrameIndex build(String filePath) throws IOException {
+        return build(filePath, null);
+    }
+
+    // Also feeds every audio frame to audioDigest when it is not null, which means reading the whole
+    // file instead of only the headers
+    public static Mp3FrameIndex build(String filePath, MessageDigest audioDigest) throws IOException {
+        // Skipping a frame body on an AudioSource moves the position without reading the bytes
+        try (AudioSource in = AudioSource.openForScan(filePath)) {
+            return build(in, in.length(), audioDigest);
+        }
+    }
+
+    static Mp3FrameIndex build(InputStream in, long fileLength) throws IOException {
+        return build(in, fileLength, null);
+    }
+
+    static Mp3FrameIndex build(InputStream in, long fileLength, MessageDigest audioDigest) throws IOException {
+        CountingInput input = new CountingInput(in);
+        skipId3v2(input);
+
+        FrameHeader first = syncToFrame(input);
+        if (first == null) {
+            throw new IOException("No MPEG audio frames found");
+        }
+        long firstFrameOffset = input.position - 4;
+
+        // The first frame may be a Xing/Info or VBRI frame describing the whole stream
+        byte[] frame = new byte[first.frameSize];
+        int read = input.readFully(frame, 4, first.frameSize - 4);
+        Mp3FrameIndex fromHeader = fromVbrHeader(first, frame, 4 + read, firstFrameOffset, fileLength);
+        if (fromHeader != null && audioDigest == null) {
+            return fromHeader;
+        }
+        if (fromHeader == null && audioDigest != null) {
+            digestFrame(audioDigest, first, frame, 4 + read); // The first frame is audio too
+        }
+
+        // No VBR header, or hashing: walk the frame headers, skipping over (or hashing) the frame bodies
+        long[] offsets = new long[256];
+        offsets[0] = firstFrameOffset;
+        int frames = 1;
+        long lastFrameEnd = firstFrameOffset + first.frameSize;
+        FrameHeader h;
+        while ((h = syncToFrame(input)) != null) {
+            long offset = input.position - 4;
+            if (frames % SEEK_INTERVAL == 0) {
+                int slot = frames / SEEK_INTERVAL;
+                if (slot == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, slot * 2);
+                }
+                offsets[slot] = offset;
+            }
+            frames++;
+            lastFrameEnd = offset + h.frameSize;
+            if (audioDigest != null) {
+                if (frame.length < h.frameSize) {
+                    frame = new byte[h.frameSize];
+                }
+                int body = input.readFully(frame, 4, h.frameSize - 4);
+                if (body < h.frameSize - 4) {
+                    break; // A truncated last frame is not hashed
+                }
+                digestFrame(audioDigest, h, frame, h.frameSize);
+            } else if (input.skipFully(h.frameSize - 4) < h.frameSize - 4) {
+                break;
+            }
+        }
+        if (fromHeader != null) {
+            return fromHeader; // Walked only for the hash; the Xing/VBRI data is more accurate
+        }
+        long[] seekTable = Arrays.copyOf(offsets, (frames + SEEK_INTERVAL - 1) / SEEK_INTERVAL);
+        return new Mp3FrameIndex(first.sampleRate, first.samplesPerFrame, frames, firstFrameOffset,
+                lastFrameEnd - firstFrameOffset, 0, 0, seekTable, null);
+    }
+
+    // frame holds the body from index 4 on; the header bytes are filled in from h
+    private static void digestFrame(MessageDigest digest, FrameHeader h, byte[] frame, int length) {
+        frame[0] = (byte) (h.raw >> 24);
+        frame[1] = (byte) (h.raw >> 16);
+        frame[2] = (byte) (h.raw >> 8);
+        frame[3] = (byte) h.raw;
+        digest.update(frame, 0, length);
+    }
+
+    private static Mp3FrameIndex fromVbrHeader(FrameHeader h, byte[] frame, int length, long firstFrameOffset, long fileLength) {
+        int x = h.xingOffset();
+        if (x + 8 <= length && (matches(frame, x, "Xing") || matches(frame, x, "Info"))) {
+            int flags = readInt(frame, x + 4);
+            int p = x + 8;
+            int frames = -1;
+            long bytes = fileLength - firstFrameOffset;
+            int[] toc = null;
+            if ((flags & 1) != 0 && p + 4 <= length) {
+                frames = readInt(frame, p);
+                p += 4;
+            }
+            if ((flags & 2) != 0 && p + 4 <= length) {
+                bytes = readInt(frame, p) & 0xFFFFFFFFL;
+                p += 4;
+            }
+            if ((flags & 4) != 0 && p + 100 <= length) {
+                toc = new int[100];
+                for (int i = 0; i < 100; i++) {
+                    toc[i] = frame[p + i] & 0xFF;
+                }
+                p += 100;
+            }
+            if ((flags & 8) != 0) {
+                p += 4;
+            }
+            if (frames <= 0) {
+                return null;
+            }
+            // LAME extension: encoder delay and padding in samples, 12 bits each
+            int delay = 0;
+            int padding = 0;
+            if (p + 24 <= length && matches(frame, p, "LAME")) {
+                int d = p + 21;
+                delay = ((frame[d] & 0xFF) << 4) | ((frame[d + 1] & 0xFF) >> 4);
+                padding = ((frame[d + 1] & 0x0F) << 8) | (frame[d + 2] & 0xFF);
+            }
+            // The Xing frame itself carries no audio
+            return new Mp3FrameIndex(h.sampleRate, h.samplesPerFrame, frames, firstFrameOffset + h.frameSize,
+                    bytes - h.frameSize, delay, padding, null, toc);
+        }
+
+        int v = 4 + 32;
+        if (v + 26 <= length && matches(frame, v, "VBRI")) {
+            long bytes = readInt(frame, v + 10) & 0xFFFFFFFFL;
+            int frames = readInt(frame, v + 14);
+            if (frames <= 0) {
+                return null;
+            }
+            return new Mp3FrameIndex(h.sampleRate, h.samplesPerFrame, frames, firstFrameOffset + h.frameSize,
+                    bytes - h.frameSize, 0, 0, null, null);
+        }
+        return null;
+    }
+
+    // Skips an ID3v2 tag if the stream starts with one
+    private static void skipId3v2(CountingInput input) throws IOException {
+        input.in.mark(10);
+        byte[] tag = new byte[10];
+        int n = input.in.readNBytes(tag, 0, 10);
+        if (n == 10 && tag[0] == 'I' && tag[1] == 'D' && tag[2] == '3') {
+            int size = ((tag[6] & 0x7F) << 21) | ((tag[7] & 0x7F) << 14) | ((tag[8] & 0x7F) << 7) | (tag[9] & 0x7F);
+            boolean footer = (tag[5] & 0x10) != 0;
+            input.position = 10;
+            input.skipFully(size + (footer ? 10 : 0));
+        } else {
+            input.in.reset();
+        }
+    }
+
+    // Reads forward to the next valid frame header and consumes its 4 bytes
+    private static FrameHeader syncToFrame(CountingInput input) throws IOException {
+        int b1 = input.read();
+        int b2 = input.read();
+        int b3 = input.read();
+        int b4 = input.read();
+        while (b4 != -1) {
+            FrameHeader h = FrameHeader.parse(b1, b2, b3, b4);
+            if (h != null) {
+                return h;
+            }
+            b1 = b2;
+            b2 = b3;
+            b3 = b4;
+            b4 = input.read();
+        }
+        return null;
+    }
+
+    private static boolean matches(byte[] data, int offset, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            if (data[offset + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    public int getDurationMs() {
+        long samples = (long) frameCount * samplesPerFrame - encoderDelay - encoderPadding;
+        return (int) (Math.max(0, samples) * 1000 / sampleRate);
+    }
+
+    // Average over the whole stream, so VBR files get their mean rate
+    public int getBitrateKbps() {
+        long samples = (long) frameCount * samplesPerFrame;
+        return samples == 0 ? 0 : (int) (audioBytes * 8 * sampleRate / samples / 1000);
+    }
+
+    public long getAudioBytes() {
+        return audioBytes;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    public double getMsPerFrame() {
+        return samplesPerFrame * 1000.0 / sampleRate;
+    }
+
+    public int getEncoderDelay() {
+        return encoderDelay;
+    }
+
+    public int getEncoderPadding() {
+        return encoderPadding;
+    }
+
+    public long getFirstFrameOffset() {
+        return firstFrameOffset;
+    }
+
+    public int frameAt(long millis) {
+        int frame = (int) (millis * sampleRate / (1000L * samplesPerFrame));
+        return Math.max(0, Math.min(frame, frameCount - 1));
+    }
+
+    public long millisAt(int frame) {
+        return (long) frame * samplesPerFrame * 1000 / sampleRate;
+    }
+
+    // Byte offset to start reading from in order to play from the given time. For scanned files this
+    // is the exact start of a frame up to SEEK_INTERVAL frames early; for VBR header files it is
+    // interpolated from the table of contents and the reader resynchronises on the next frame header.
+    public SeekPoint seekPoint(long millis) {
+        int frame = frameAt(millis);
+        if (seekTable != null) {
+            int slot = Math.min(frame / SEEK_INTERVAL, seekTable.length - 1);
+            return new SeekPoint(slot * SEEK_INTERVAL, seekTable[slot]);
+        }
+        double percent = frameCount == 0 ? 0 : frame * 100.0 / frameCount;
+        double fraction;
+        if (toc != null) {
+            int i = Math.min(99, (int) percent);
+            double lo = toc[i];
+            double hi = i < 99 ? toc[i + 1] : 256;
+            fraction = (lo + (hi - lo) * (percent - i)) / 256.0;
+        } else {
+            fraction = percent / 100.0; // constant bitrate: position is proportional to time
+        }
+        return new SeekPoint(frame, firstFrameOffset + (long) (fraction * audioBytes));
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(sampleRate);
+            out.writeShort(samplesPerFrame);
+            out.writeInt(frameCount);
+            out.writeLong(firstFrameOffset);
+            out.writeLong(audioBytes);
+            out.writeShort(encoderDelay);
+            out.writeShort(encoderPadding);
+            out.writeInt(seekTable == null ? -1 : seekTable.length);
+            if (seekTable != null) {
+                // Delta-encode: consecutive entries are SEEK_INTERVAL frames apart, so the gaps fit in an int
+                long previous = 0;
+                for (long offset : seekTable) {
+                    out.writeInt((int) (offset - previous));
+                    previous = offset;
+                }
+            }
+            out.writeBoolean(toc != null);
+            if (toc != null) {
+                for (int entry : toc) {
+                    out.writeByte(entry);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen with an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    // Returns null if the data was written by an incompatible version
+    public static Mp3FrameIndex fromBytes(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+            int sampleRate = in.readInt();
+            int samplesPerFrame = in.readShort();
+            int frameCount = in.readInt();
+            long firstFrameOffset = in.readLong();
+            long audioBytes = in.readLong();
+            int encoderDelay = in.readShort();
+            int encoderPadding = in.readShort();
+            int seekEntries = in.readInt();
+            long[] seekTable = null;
+            if (seekEntries >= 0) {
+                seekTable = new long[seekEntries];
+                long previous = 0;
+                for (int i = 0; i < seekEntries; i++) {
+                    previous += in.readInt();
+                    seekTable[i] = previous;
+                }
+            }
+            int[] toc = null;
+            if (in.readBoolean()) {
+                toc = new int[100];
+                for (int i = 0; i < 100; i++) {
+                    toc[i] = in.readUnsignedByte();
+                }
+            }
+            return new Mp3FrameIndex(sampleRate, samplesPerFrame, frameCount, firstFrameOffset, audioBytes,
+                    encoderDelay, encoderPadding, seekTable, toc);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Stream wrapper that knows its byte position
+    private static class CountingInput {
+        private final InputStream in;
+        private long position = 0;
+
+        CountingInput(InputStream in) {
+            this.in = in;
+        }
+
+        int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                position++;
+            }
+            return b;
+        }
+
+        int readFully(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.readNBytes(buffer, offset, length);
+            position += n;
+            return n;
+        }
+
+        long skipFully(long count) throws IOException {
+            long skipped = 0;
+            while (skipped < count) {
+                long n = in.skip(count - skipped);
+                if (n <= 0) {
+                    if (in.read() == -1) {
+                        break;
+                    }
+                    n = 1;
+                }
+                skipped += n;
+            }
+            position += skipped;
+            return skipped;
+        }
+    }
+}
@@ -5,8 +5,14 @@ import javax.swing.SwingUtilities;
 public class MyTunes {
 
     public static void main(String[] args) {
+        EdtWatchdog.installIfEnabled();
+        // The library is read from MySQL and indexed here, before the window exists, rather than on the EDT
+        Database database = new Database();
+        LibraryCache libraryCache = new LibraryCache(database);
+        SearchIndex searchIndex = new SearchIndex(libraryCache);
+        libraryCache.addListener(searchIndex); // Before the frame's LibraryViewUpdater, which filters added songs through it
         SwingUtilities.invokeLater(() -> {
-            new MyTunesFrame().setVisible(true);
+            new MyTunesFrame(database, libraryCache, searchIndex).setVisible(true);
         });
     }
 }
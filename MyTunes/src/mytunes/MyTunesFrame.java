@@ -1,9 +1,12 @@
 package mytunes;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableCellRenderer;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
@@ -18,58 +21,93 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;  // Import this instead of java.awt.List
 import java.util.ArrayList;
+import java.util.function.Predicate;
 import javax.swing.Timer;  // Import this instead of java.util.Timer
 
 public class MyTunesFrame extends JFrame {
 
     private JTable songTable;
-    private DefaultTableModel tableModel;
+    private final SongTableModel tableModel = new SongTableModel();
+    private final SongSorter songSorter = new SongSorter();
     private JTree libraryTree;
     private JTree playlistTree;
     private DefaultTreeModel playlistTreeModel;
     private JButton playButton, stopButton, pauseButton, unpauseButton, nextButton, previousButton, shuffleButton, repeatButton;
     private JFileChooser fileChooser;
-    private List<Song> songList = new ArrayList<>();
     private List<Song> currentPlaylist = new ArrayList<>();
+    private String attachedPlaylist; // The playlist the main table shows through the registry, if any
+    private List<Song> playingSongs = new ArrayList<>(); // The list currentSongIndex points into
+    private JTable playingTable; // The table, in this or a playlist window, the playing song was started from
     private int currentSongIndex = -1;
     private final MP3Player mp3Player = new MP3Player();
     private Database database;
+    private AsyncDatabase asyncDatabase;
+    private PlaylistRegistry playlistRegistry;
+    private LibraryCache libraryCache;
+    private PlayHistoryRecorder playHistory;
+    private FrameIndexStore frameIndexStore;
+    private final MetadataExtractor metadataExtractor = new MetadataExtractor();
+    private LibraryScanner libraryScanner;
+    private FolderWatcher folderWatcher;
+    private SearchIndex searchIndex;
+    private String searchQuery = "";
+    private boolean isLibraryView = false;
+    private int viewVersion; // Bumped on every view switch, so a late playlist load doesn't replace a newer view
     private boolean isShuffleEnabled = false;
+    private final Shuffler shuffler = new Shuffler();
     private boolean isRepeatEnabled = false;
+    private boolean isGaplessEnabled = true;
+    private FolderImporter.DuplicateMode duplicateMode = FolderImporter.DuplicateMode.IMPORT;
+    private int nextSongIndex = -1;
     private JPopupMenu libraryPopupMenu;
     private JPopupMenu playlistPopupMenu;
     private JSlider volumeSlider;
     private JProgressBar progressBar;
     private JLabel elapsedTimeLabel, remainingTimeLabel;
-    private Map<String, Boolean> columnVisibility;
+    private JLabel statusLabel; // Results of imports, rescans and watched-folder changes
+    private Map<SongTableModel.Column, Boolean> columnVisibility;
     private Timer songTimer;
     private int songDuration;
     private int elapsedTime;
+    private Song timedSong;
 
-    public MyTunesFrame() {
+    // The database, library and search index are opened by the caller, off the event dispatch thread
+    public MyTunesFrame(Database database, LibraryCache libraryCache, SearchIndex searchIndex) {
         setTitle("MyTunes");
         setSize(1000, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
 
-        database = new Database();
-        songList = database.getAllSongs();
+        this.database = database;
+        this.libraryCache = libraryCache;
+        this.searchIndex = searchIndex;
+        asyncDatabase = new AsyncDatabase(database);
+        playlistRegistry = new PlaylistRegistry(asyncDatabase);
+        playHistory = new PlayHistoryRecorder(database);
+        frameIndexStore = new FrameIndexStore(database);
+        libraryCache.addListener(frameIndexStore);
+        libraryScanner = new LibraryScanner(libraryCache, database, metadataExtractor);
+        libraryCache.addListener(playlistRegistry);
+        Runtime.getRuntime().addShutdownHook(new Thread(playHistory::close)); // Flush pending plays on exit
 
         // Initialize column visibility
-        columnVisibility = new HashMap<>();
-        columnVisibility.put("Title", true);
-        columnVisibility.put("Artist", true);
-        columnVisibility.put("Album", true);
-        columnVisibility.put("Year", true);
-        columnVisibility.put("Genre", true);
-        columnVisibility.put("Comment", true);
+        columnVisibility = new EnumMap<>(SongTableModel.Column.class); // Iterates in column order
+        for (SongTableModel.Column column : SongTableModel.Column.values()) {
+            columnVisibility.put(column, true);
+        }
 
         initUI();
         loadSongsToTable(); // Load songs into the table on startup
         loadPlaylistsFromDatabase(); // Load playlists into the tree on startup
+        libraryCache.addListener(new LibraryViewUpdater());
+        startLibraryWatch();
+        asyncDatabase.supply(Database::getPlayStats).thenAccept(shuffler::setPlayStats); // For the weighted shuffle modes
+        mp3Player.setGapless(isGaplessEnabled);
+        mp3Player.setListener(new PlayerEventHandler());
     }
 
     private void initUI() {
@@ -93,7 +131,6 @@ public class MyTunesFrame extends JFrame {
                 if (selectedNode != null && selectedNode.getUserObject().equals("Library")) {
                     showLibrary(); // Show the library when "Library" node is selected
                     playlistTree.clearSelection(); // Clear playlist tree selection
-                    currentPlaylist = songList; // Set the current playlist to the library songs
                 }
             }
         });
@@ -120,7 +157,7 @@ public class MyTunesFrame extends JFrame {
         });
 
         // Enable drag and drop for playlists
-        new DropTarget(playlistTree, new PlaylistDropTargetListener(this, database));
+        new DropTarget(playlistTree, new PlaylistDropTargetListener(this, playlistRegistry));
 
         // Add right-click functionality to open playlists in new window
         playlistTree.addMouseListener(new MouseAdapter() {
@@ -139,20 +176,56 @@ public class MyTunesFrame extends JFrame {
         sidePanel.add(new JScrollPane(playlistTree));
         add(sidePanel, BorderLayout.WEST);
 
-        // Create table for songs
-        String[] columnNames = {"Title", "Artist", "Album", "Year", "Genre", "Comment"};
-        tableModel = new DefaultTableModel(columnNames, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column == 5;  // Only the comment field is editable
-            }
-        };
+        // Create table for songs; edited comments are saved to the library
+        tableModel.setCommentEditListener(this::saveComment);
         songTable = new JTable(tableModel);
         songTable.setRowHeight(30);
 
+        // Clicking a column header sorts the view by it; earlier sort columns break ties
+        songTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = songTable.columnAtPoint(e.getPoint());
+                if (SwingUtilities.isLeftMouseButton(e) && column != -1 && songTable.getModel() == tableModel) {
+                    songSorter.toggle(tableModel.getColumn(songTable.convertColumnIndexToModel(column)));
+                    sortCurrentView();
+                }
+            }
+        });
+        TableCellRenderer headerRenderer = songTable.getTableHeader().getDefaultRenderer();
+        songTable.getTableHeader().setDefaultRenderer((table, value, isSelected, hasFocus, row, column) -> {
+            Component component = headerRenderer.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            if (component instanceof JLabel) {
+                ((JLabel) component).setIcon(sortIcon(column));
+            }
+            return component;
+        });
+
         JScrollPane scrollPane = new JScrollPane(songTable);
         add(scrollPane, BorderLayout.CENTER);
 
+        // Search box; the library is filtered as the user types
+        JTextField searchField = new JTextField(30);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search(searchField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search(searchField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(searchField);
+        add(searchPanel, BorderLayout.NORTH);
+
         // Enable drag and drop for the table
         new DropTarget(songTable, new DropTargetListener() {
             @Override
@@ -197,7 +270,7 @@ public class MyTunesFrame extends JFrame {
 
         // Enable drag from the song table
         songTable.setDragEnabled(true);
-        songTable.setTransferHandler(new SongTransferHandler(database, this));
+        songTable.setTransferHandler(new SongTransferHandler(playlistRegistry, this));
 
         // Create buttons and progress components
         JPanel buttonPanel = new JPanel();
@@ -231,12 +304,23 @@ public class MyTunesFrame extends JFrame {
         buttonPanel.add(elapsedTimeLabel);
 
         progressBar = new JProgressBar();
+        progressBar.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                seekToProgressBarPosition(e.getX());
+            }
+        });
         buttonPanel.add(progressBar);
 
         remainingTimeLabel = new JLabel("00:00");
         buttonPanel.add(remainingTimeLabel);
 
-        add(buttonPanel, BorderLayout.SOUTH);
+        statusLabel = new JLabel(" ");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.add(buttonPanel, BorderLayout.CENTER);
+        bottomPanel.add(statusLabel, BorderLayout.SOUTH);
+        add(bottomPanel, BorderLayout.SOUTH);
 
         // File chooser
         fileChooser = new JFileChooser();
@@ -284,8 +368,8 @@ public class MyTunesFrame extends JFrame {
         stopButton.addActionListener(e -> stopSong());
         pauseButton.addActionListener(e -> pauseSong());
         unpauseButton.addActionListener(e -> unpauseSong());
-        nextButton.addActionListener(e -> nextSong());
-        previousButton.addActionListener(e -> previousSong());
+        nextButton.addActionListener(e -> nextSong(currentPlaylist, songTable));
+        previousButton.addActionListener(e -> previousSong(currentPlaylist, songTable));
         shuffleButton.addActionListener(e -> toggleShuffle());
         repeatButton.addActionListener(e -> toggleRepeat());
     }
@@ -302,6 +386,24 @@ public class MyTunesFrame extends JFrame {
         JMenuItem addSongItem = new JMenuItem("Add a Song");
         addSongItem.addActionListener(e -> addSong());
 
+        JMenuItem importFolderItem = new JMenuItem("Import Folder");
+        importFolderItem.addActionListener(e -> importFolder());
+
+        JMenuItem watchedFoldersItem = new JMenuItem("Watched Folders");
+        watchedFoldersItem.addActionListener(e -> showWatchedFolders());
+
+        JMenuItem rescanItem = new JMenuItem("Rescan Library");
+        rescanItem.addActionListener(e -> rescanLibrary());
+
+        JMenuItem findDuplicatesItem = new JMenuItem("Find Duplicates");
+        findDuplicatesItem.addActionListener(e -> findDuplicates());
+
+        JMenu duplicateModeMenu = new JMenu("Duplicates on Import");
+        ButtonGroup duplicateModeGroup = new ButtonGroup();
+        addDuplicateModeItem(duplicateModeMenu, duplicateModeGroup, "Import Anyway", FolderImporter.DuplicateMode.IMPORT);
+        addDuplicateModeItem(duplicateModeMenu, duplicateModeGroup, "Skip Duplicates", FolderImporter.DuplicateMode.SKIP);
+        addDuplicateModeItem(duplicateModeMenu, duplicateModeGroup, "Link to Existing Song", FolderImporter.DuplicateMode.LINK);
+
         JMenuItem deleteSongItem = new JMenuItem("Delete a Song");
         deleteSongItem.addActionListener(e -> deleteSong());
 
@@ -316,6 +418,11 @@ public class MyTunesFrame extends JFrame {
 
         fileMenu.add(openSongItem);
         fileMenu.add(addSongItem);
+        fileMenu.add(importFolderItem);
+        fileMenu.add(watchedFoldersItem);
+        fileMenu.add(rescanItem);
+        fileMenu.add(findDuplicatesItem);
+        fileMenu.add(duplicateModeMenu);
         fileMenu.add(deleteSongItem);
         fileMenu.add(createPlaylistItem);
         fileMenu.add(deletePlaylistItem);
@@ -338,20 +445,44 @@ public class MyTunesFrame extends JFrame {
         playItem.addActionListener(e -> playSong());
 
         JMenuItem nextItem = new JMenuItem("Next");
-        nextItem.addActionListener(e -> nextSong());
+        nextItem.addActionListener(e -> nextSong(currentPlaylist, songTable));
 
         JMenuItem previousItem = new JMenuItem("Previous");
-        previousItem.addActionListener(e -> previousSong());
+        previousItem.addActionListener(e -> previousSong(currentPlaylist, songTable));
+
+        JCheckBoxMenuItem gaplessItem = new JCheckBoxMenuItem("Gapless Playback", isGaplessEnabled);
+        gaplessItem.addActionListener(e -> toggleGapless(gaplessItem.isSelected()));
+
+        JMenu shuffleModeMenu = new JMenu("Shuffle Mode");
+        ButtonGroup shuffleModeGroup = new ButtonGroup();
+        addShuffleModeItem(shuffleModeMenu, shuffleModeGroup, "Even", Shuffler.Mode.EVEN);
+        addShuffleModeItem(shuffleModeMenu, shuffleModeGroup, "Favour Most Played", Shuffler.Mode.MOST_PLAYED);
+        addShuffleModeItem(shuffleModeMenu, shuffleModeGroup, "Favour Not Played Lately", Shuffler.Mode.LEAST_RECENT);
 
         controlsMenu.add(playItem);
         controlsMenu.add(nextItem);
         controlsMenu.add(previousItem);
+        controlsMenu.addSeparator();
+        controlsMenu.add(gaplessItem);
+        controlsMenu.add(shuffleModeMenu);
 
         menuBar.add(controlsMenu);
 
         setJMenuBar(menuBar);
     }
 
+    private void addShuffleModeItem(JMenu menu, ButtonGroup group, String label, Shuffler.Mode mode) {
+        JRadioButtonMenuItem item = new JRadioButtonMenuItem(label, mode == shuffler.getMode());
+        item.addActionListener(e -> {
+            shuffler.setMode(mode);
+            if (timedSong != null) {
+                queueNextTrack(); // Draws the next song again with the new weights
+            }
+        });
+        group.add(item);
+        menu.add(item);
+    }
+
     private void adjustVolume(int volume) {
         mp3Player.setVolume(volume);
     }
@@ -395,7 +526,7 @@ public class MyTunesFrame extends JFrame {
     private void openSelectedSong() {
         int selectedRow = songTable.getSelectedRow();
         if (selectedRow != -1) {
-            Song selectedSong = songList.get(selectedRow);
+            Song selectedSong = currentPlaylist.get(selectedRow);
             mp3Player.stop();  // Stop any currently playing song
             mp3Player.play(selectedSong.getFilePath());
         } else {
@@ -408,8 +539,7 @@ public class MyTunesFrame extends JFrame {
         String selectedPlaylist = getSelectedPlaylist();
         if (selectedRow != -1 && selectedPlaylist != null) {
             Song song = currentPlaylist.get(selectedRow);
-            database.removeSongFromPlaylist(song, selectedPlaylist);
-            loadPlaylistSongs(selectedPlaylist); // Refresh the playlist table after deleting a song
+            playlistRegistry.removeSong(selectedPlaylist, song); // The registry deletes the row from every view of the playlist
         }
     }
 
@@ -418,8 +548,10 @@ public class MyTunesFrame extends JFrame {
         if (selectedPlaylist != null) {
             int confirmation = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete the playlist '" + selectedPlaylist + "'?", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
             if (confirmation == JOptionPane.YES_OPTION) {
-                database.deletePlaylist(selectedPlaylist);
-                loadPlaylistsFromDatabase(); // Refresh the playlist tree after deleting a playlist
+                asyncDatabase.deletePlaylist(selectedPlaylist).thenRun(() -> {
+                    playlistRegistry.playlistDeleted(selectedPlaylist);
+                    loadPlaylistsFromDatabase(); // Refresh the playlist tree after deleting a playlist
+                });
                 showLibrary(); // Switch to library view after deleting a playlist
             }
         }
@@ -428,9 +560,10 @@ public class MyTunesFrame extends JFrame {
     private void createPlaylist() {
         String playlistName = JOptionPane.showInputDialog(this, "Enter playlist name:");
         if (playlistName != null && !playlistName.trim().isEmpty()) {
-            database.createPlaylist(playlistName);
-            loadPlaylistsFromDatabase(); // Refresh the playlist tree after creating a new playlist
-            loadPlaylistSongs(playlistName); // Optional: Automatically load the new playlist's songs in the main window
+            asyncDatabase.createPlaylist(playlistName).thenRun(() -> {
+                loadPlaylistsFromDatabase(); // Refresh the playlist tree after creating a new playlist
+                loadPlaylistSongs(playlistName); // Optional: Automatically load the new playlist's songs in the main window
+            });
         }
     }
 
@@ -442,53 +575,93 @@ public class MyTunesFrame extends JFrame {
         }
     }
 
+    // Shows the playlist through the registry, which shares its songs with any playlist window showing
+    // it and keeps the rows current as songs are dropped, removed or edited. The rows are sorted once
+    // the playlist has been read, unless the view was switched in the meantime.
     private void loadPlaylistSongs(String playlistName) {
-        currentPlaylist = new ArrayList<>(database.getSongsFromPlaylist(playlistName));
+        int version = ++viewVersion;
+        isLibraryView = false;
+        if (!playlistName.equals(attachedPlaylist)) {
+            detachPlaylist();
+            attachedPlaylist = playlistName;
+            playlistRegistry.attach(playlistName, tableModel).thenRun(() -> {
+                if (version == viewVersion) {
+                    sortCurrentView();
+                }
+            });
+            currentPlaylist = tableModel.getSongs();
+        }
         refreshTableColumns();
-        tableModel.setRowCount(0); // Clear the table
-        for (Song song : currentPlaylist) {
-            addSongToTable(song);
+    }
+
+    private void detachPlaylist() {
+        if (attachedPlaylist != null) {
+            playlistRegistry.detach(attachedPlaylist, tableModel);
+            attachedPlaylist = null;
         }
     }
 
     private void showLibrary() {
-        currentPlaylist = new ArrayList<>(songList); // Set the current playlist to a copy of the library songs
+        viewVersion++;
+        isLibraryView = true;
+        detachPlaylist();
+        // The library songs matching the search, or a copy of the whole library
+        currentPlaylist = searchQuery.isEmpty() ? libraryCache.getSongs() : searchIndex.search(searchQuery);
         refreshTableColumns();
-        tableModel.setRowCount(0); // Clear the table
-        for (Song song : currentPlaylist) {
-            addSongToTable(song);
+    }
+
+    // Searching always shows the library
+    private void search(String query) {
+        searchQuery = query.trim();
+        boolean wasLibraryView = isLibraryView;
+        libraryTree.setSelectionRow(0); // Selecting the Library node shows it, unless it already was selected
+        if (wasLibraryView || !isLibraryView) {
+            showLibrary();
         }
     }
 
     private void showPlaylists() {
-        tableModel.setRowCount(0);
-        tableModel.setColumnCount(1); // Show only playlist names
-        tableModel.setColumnIdentifiers(new Object[]{"Playlists"});
+        viewVersion++;
+        isLibraryView = false;
+        detachPlaylist();
+        DefaultTableModel playlistNamesModel = new DefaultTableModel(new Object[]{"Playlists"}, 0); // Show only playlist names
 
         DefaultMutableTreeNode rootNode = (DefaultMutableTreeNode) playlistTreeModel.getRoot();
         for (int i = 0; i < rootNode.getChildCount(); i++) {
             DefaultMutableTreeNode childNode = (DefaultMutableTreeNode) rootNode.getChildAt(i);
-            tableModel.addRow(new Object[]{childNode.toString()});
+            playlistNamesModel.addRow(new Object[]{childNode.toString()});
         }
+        songTable.setModel(playlistNamesModel);
     }
 
     private void loadPlaylistsFromDatabase() {
-        List<String> playlists = database.getAllPlaylists();
-        DefaultMutableTreeNode rootNode = (DefaultMutableTreeNode) playlistTreeModel.getRoot();
-        rootNode.removeAllChildren(); // Clear existing nodes
+        asyncDatabase.getAllPlaylists().thenAccept(playlists -> {
+            DefaultMutableTreeNode rootNode = (DefaultMutableTreeNode) playlistTreeModel.getRoot();
+            rootNode.removeAllChildren(); // Clear existing nodes
 
-        for (String playlist : playlists) {
-            DefaultMutableTreeNode playlistNode = new DefaultMutableTreeNode(playlist);
-            playlistTreeModel.insertNodeInto(playlistNode, rootNode, rootNode.getChildCount());
-        }
+            for (String playlist : playlists) {
+                DefaultMutableTreeNode playlistNode = new DefaultMutableTreeNode(playlist);
+                playlistTreeModel.insertNodeInto(playlistNode, rootNode, rootNode.getChildCount());
+            }
 
-        playlistTreeModel.reload(); // Refresh the tree model to show changes
+            playlistTreeModel.reload(); // Refresh the tree model to show changes
+        });
+    }
+
+    // The playlist names as shown in the tree, which is reloaded whenever playlists change
+    private List<String> getPlaylistNames() {
+        DefaultMutableTreeNode rootNode = (DefaultMutableTreeNode) playlistTreeModel.getRoot();
+        List<String> playlists = new ArrayList<>(rootNode.getChildCount());
+        for (int i = 0; i < rootNode.getChildCount(); i++) {
+            playlists.add(rootNode.getChildAt(i).toString());
+        }
+        return playlists;
     }
 
     private void showPlaylistMenu(MouseEvent e) {
         JPopupMenu playlistMenu = new JPopupMenu();
 
-        List<String> playlists = database.getAllPlaylists();
+        List<String> playlists = getPlaylistNames(); // No database round trip on every right-click
         if (playlists.isEmpty()) {
             JOptionPane.showMessageDialog(this, "No playlists available.", "Information", JOptionPane.INFORMATION_MESSAGE);
             return;
@@ -515,6 +688,8 @@ public class MyTunesFrame extends JFrame {
         contextMenu.show(e.getComponent(), e.getX(), e.getY());
     }
 
+    // The window shows the playlist's model from playlistRegistry, shared with any other window
+    // showing it and kept current row by row. Its buttons control the same player as this window.
     private void openPlaylistInNewWindow() {
         String selectedPlaylist = getSelectedPlaylist();
         if (selectedPlaylist != null) {
@@ -523,16 +698,15 @@ public class MyTunesFrame extends JFrame {
             newWindow.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE); // Only close this window
 
             // Create a table model and table for the new window
-            DefaultTableModel newTableModel = new DefaultTableModel(new String[]{"Title", "Artist", "Album", "Year", "Genre", "Comment"}, 0);
+            SongTableModel newTableModel = new SongTableModel();
+            newTableModel.setCommentEditListener(this::saveComment);
             JTable newSongTable = new JTable(newTableModel);
             newSongTable.setRowHeight(30);
             JScrollPane newScrollPane = new JScrollPane(newSongTable);
 
-            // Load songs for the selected playlist into the new window
-            List<Song> songs = database.getSongsFromPlaylist(selectedPlaylist);
-            for (Song song : songs) {
-                newTableModel.addRow(new Object[]{song.getTitle(), song.getArtist(), song.getAlbum(), song.getYear(), song.getGenre(), song.getComment()});
-            }
+            playlistRegistry.attach(selectedPlaylist, newTableModel);
+            List<Song> songs = newTableModel.getSongs(); // Filled in once read, then changes with the playlist
+            newTableModel.addTableModelListener(e -> followPlayingSong()); // Rows may have moved under the playing song
 
             // Create playback buttons for the new window
             JPanel buttonPanel = new JPanel();
@@ -543,46 +717,22 @@ public class MyTunesFrame extends JFrame {
             JButton nextButton = new JButton("Next");
             JButton previousButton = new JButton("Previous");
 
-            // Set up the playback logic
-            List<Song> currentPlaylist = songs; // Set the current playlist to the songs in this window
-            MP3Player mp3Player = new MP3Player(); // Create a new MP3 player for this window
-            int[] currentSongIndex = {-1}; // Use an array to hold the index so it can be modified within listeners
-
             playButton.addActionListener(e -> {
                 int selectedRow = newSongTable.getSelectedRow();
                 if (selectedRow != -1) {
-                    mp3Player.stop();  // Stop any currently playing song
-                    currentSongIndex[0] = selectedRow;
-                    Song song = currentPlaylist.get(currentSongIndex[0]);
-                    mp3Player.play(song.getFilePath());
+                    play(songs, newSongTable, selectedRow);
                 }
             });
 
-            stopButton.addActionListener(e -> mp3Player.stop());
+            stopButton.addActionListener(e -> stopSong());
 
-            pauseButton.addActionListener(e -> mp3Player.pause());
+            pauseButton.addActionListener(e -> pauseSong());
 
-            unpauseButton.addActionListener(e -> mp3Player.unpause());
+            unpauseButton.addActionListener(e -> unpauseSong());
 
-            nextButton.addActionListener(e -> {
-                if (!currentPlaylist.isEmpty()) {
-                    mp3Player.stop();  // Stop any currently playing song
-                    currentSongIndex[0] = (currentSongIndex[0] + 1) % currentPlaylist.size();
-                    newSongTable.setRowSelectionInterval(currentSongIndex[0], currentSongIndex[0]);
-                    Song song = currentPlaylist.get(currentSongIndex[0]);
-                    mp3Player.play(song.getFilePath());
-                }
-            });
+            nextButton.addActionListener(e -> nextSong(songs, newSongTable));
 
-            previousButton.addActionListener(e -> {
-                if (!currentPlaylist.isEmpty()) {
-                    mp3Player.stop();  // Stop any currently playing song
-                    currentSongIndex[0] = (currentSongIndex[0] - 1 + currentPlaylist.size()) % currentPlaylist.size();
-                    newSongTable.setRowSelectionInterval(currentSongIndex[0], currentSongIndex[0]);
-                    Song song = currentPlaylist.get(currentSongIndex[0]);
-                    mp3Player.play(song.getFilePath());
-                }
-            });
+            previousButton.addActionListener(e -> previousSong(songs, newSongTable));
 
             // Add buttons to the button panel
             buttonPanel.add(playButton);
@@ -592,11 +742,11 @@ public class MyTunesFrame extends JFrame {
             buttonPanel.add(nextButton);
             buttonPanel.add(previousButton);
 
-            // Add a WindowListener to stop the song when the window is closed
+            // A song started here keeps playing after the window is closed, like one from the main window
             newWindow.addWindowListener(new java.awt.event.WindowAdapter() {
                 @Override
-                public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                    mp3Player.stop();
+                public void windowClosed(java.awt.event.WindowEvent windowEvent) {
+                    playlistRegistry.detach(selectedPlaylist, newTableModel);
                 }
             });
 
@@ -614,8 +764,8 @@ public class MyTunesFrame extends JFrame {
         int selectedRow = songTable.getSelectedRow();
         if (selectedRow != -1) {
             Song selectedSong = currentPlaylist.get(selectedRow);
-            database.addSongToPlaylist(selectedSong, playlistName);
-            JOptionPane.showMessageDialog(this, "Song added to playlist: " + playlistName);
+            playlistRegistry.addSongs(playlistName, Collections.singletonList(selectedSong))
+                    .thenRun(() -> JOptionPane.showMessageDialog(this, "Song added to playlist: " + playlistName));
         }
     }
 
@@ -633,29 +783,35 @@ public class MyTunesFrame extends JFrame {
     private void addSong() {
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            Song newSong = Song.fromFile(file);
 
-            // Check if the song already exists in the library
-            boolean songExists = songList.stream()
-                    .anyMatch(s -> s.getFilePath().equals(newSong.getFilePath()));
+            // Tags are read and the song is stored off the EDT
+            new SwingWorker<Boolean, Void>() {
+                @Override
+                protected Boolean doInBackground() {
+                    // Adds to the cache and database; the library view is updated by LibraryViewUpdater
+                    return libraryCache.addSong(metadataExtractor.extract(file));
+                }
 
-            if (!songExists) {
-                songList.add(newSong);  // Add to the list if it doesn't exist
-                database.addSong(newSong);  // Add to the database
-                loadSongsToTable();  // Refresh the library view to show the new song
-            } else {
-                JOptionPane.showMessageDialog(this, "The song already exists in the library.", "Duplicate Song", JOptionPane.WARNING_MESSAGE);
-            }
+                @Override
+                protected void done() {
+                    try {
+                        if (!get()) {
+                            JOptionPane.showMessageDialog(MyTunesFrame.this, "The song already exists in the library.", "Duplicate Song", JOptionPane.WARNING_MESSAGE);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }.execute();
         }
     }
 
     private void deleteSong() {
         int selectedRow = songTable.getSelectedRow();
         if (selectedRow != -1) {
-            Song song = songList.get(selectedRow);
-            songList.remove(selectedRow);
-            database.deleteSong(song);
-            loadSongsToTable();
+            Song song = currentPlaylist.get(selectedRow);
+            // The library view is updated by LibraryViewUpdater, playlist views by the PlaylistRegistry
+            asyncDatabase.run(db -> libraryCache.removeSong(song));
         }
     }
 
@@ -667,67 +823,108 @@ public class MyTunesFrame extends JFrame {
 
         int selectedRow = songTable.getSelectedRow();
         if (selectedRow != -1) {
-            stopSong();  // Stop any currently playing song
-            currentSongIndex = selectedRow;
-            Song song = currentPlaylist.get(currentSongIndex);
-            System.out.println("Playing song: " + song.getFilePath());
-
-            // Automatically add to the "Recent" playlist
-            database.setAddingToRecent(true); // Allow adding to Recent
-            database.addSongToPlaylist(song, "Recent");
-            database.setAddingToRecent(false); // Reset the flag
-
-            // Initialize and start the song timer
-            initializeAndStartTimer(song.getFilePath());
-
-            mp3Player.play(song.getFilePath());
+            play(currentPlaylist, songTable, selectedRow);
         } else {
             JOptionPane.showMessageDialog(this, "Please select a song to play.", "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    // Plays a song of the list shown in table, in this window or a playlist window. There is one
+    // player for all of them; Next, Previous and the end of the song continue in that list.
+    private void play(List<Song> songs, JTable table, int index) {
+        stopSong();  // Stop any currently playing song
+        playingSongs = songs;
+        playingTable = table;
+        currentSongIndex = index;
+        Song song = songs.get(currentSongIndex);
+        System.out.println("Playing song: " + song.getFilePath());
+        highlightCurrentSong();
+        shuffler.playing(songs, currentSongIndex);
+
+        // Automatically add to the "Recent" playlist; written in the background
+        playHistory.recordPlay(song);
+
+        mp3Player.play(song.getFilePath());
+
+        // Initialize and start the song timer
+        initializeAndStartTimer(song);
+        queueNextTrack();
+    }
+
+    // Only while the table still shows the list the song is playing from
     private void highlightCurrentSong() {
-        if (currentSongIndex != -1) {
-            songTable.setRowSelectionInterval(currentSongIndex, currentSongIndex);
+        if (currentSongIndex != -1 && currentSongIndex < playingSongs.size() && playingTable != null
+                && playingTable.getModel() instanceof SongTableModel
+                && ((SongTableModel) playingTable.getModel()).getSongs() == playingSongs) {
+            playingTable.setRowSelectionInterval(currentSongIndex, currentSongIndex);
         }
     }
 
-    private void initializeAndStartTimer(String filePath) {
-        // Get the duration of the song
-        songDuration = mp3Player.getSongDuration(filePath);
+    private void initializeAndStartTimer(Song song) {
         elapsedTime = 0;
+        timedSong = song;
 
         if (songTimer != null) {
             songTimer.stop();
+            songTimer = null;
+        }
+
+        if (song.getDurationMs() > 0) {
+            startTimer(song.getDurationMs() / 1000);
         }
 
+        // Load (or build) the frame index off the EDT; it gives the duration and lets the player seek
+        new SwingWorker<Mp3FrameIndex, Void>() {
+            @Override
+            protected Mp3FrameIndex doInBackground() {
+                return frameIndexStore.get(song);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Mp3FrameIndex index = get();
+                    if (index != null) {
+                        mp3Player.setFrameIndex(song.getFilePath(), index);
+                        if (song == timedSong && songTimer == null) {
+                            startTimer(index.getDurationMs() / 1000);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private void startTimer(int durationSeconds) {
+        songDuration = durationSeconds;
+
         // Set the progress bar maximum value to the song duration in seconds
         progressBar.setMaximum(songDuration);
 
-        songTimer = new Timer(1000, new ActionListener() {
+        // Only follows the player's position; moving to the next song is driven by PlayerEventHandler
+        songTimer = new Timer(500, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                elapsedTime++;
-                if (elapsedTime <= songDuration) {
-                    // Update the progress bar value
-                    progressBar.setValue(elapsedTime);
-                    updateTimerUI();
-                } else {
-                    songTimer.stop();
-                    if (isRepeatEnabled) {
-                        playSong();
-                    } else if (isShuffleEnabled) {
-                        shufflePlay();
-                    } else {
-                        nextSong();
-                    }
-                }
+                elapsedTime = (int) Math.min(songDuration, mp3Player.getPositionMs() / 1000);
+                updateTimerUI();
             }
         });
 
         songTimer.start();
     }
 
+    // Clicking the progress bar jumps to that point of the song
+    private void seekToProgressBarPosition(int x) {
+        if (songDuration > 0 && progressBar.getWidth() > 0) {
+            int seconds = (int) ((long) x * songDuration / progressBar.getWidth());
+            mp3Player.seek(seconds * 1000L);
+            elapsedTime = seconds;
+            updateTimerUI();
+        }
+    }
+
     private void updateTimerUI() {
         progressBar.setValue(elapsedTime);
         elapsedTimeLabel.setText(formatTime(elapsedTime));
@@ -742,6 +939,8 @@ public class MyTunesFrame extends JFrame {
 
     private void stopSong() {
         mp3Player.stop();
+        nextSongIndex = -1;
+        timedSong = null;
         if (songTimer != null) {
             songTimer.stop();
         }
@@ -750,137 +949,210 @@ public class MyTunesFrame extends JFrame {
         remainingTimeLabel.setText("00:00");
     }
 
+    // The timer follows the player's state through PlayerEventHandler.stateChanged
     private void pauseSong() {
         mp3Player.pause();
-        if (songTimer != null) {
-            songTimer.stop();
-        }
     }
 
     private void unpauseSong() {
         mp3Player.unpause();
-        if (songTimer != null) {
-            songTimer.start();
+    }
+
+    // Next and Previous buttons continue in the list that is playing, whichever window they are in.
+    // When stopped they start from the song selected in their own window.
+    private void nextSong(List<Song> songs, JTable table) {
+        startFromSelectionIfStopped(songs, table);
+        nextSong();
+    }
+
+    private void previousSong(List<Song> songs, JTable table) {
+        startFromSelectionIfStopped(songs, table);
+        previousSong();
+    }
+
+    private void startFromSelectionIfStopped(List<Song> songs, JTable table) {
+        if (timedSong == null) {
+            playingSongs = songs;
+            playingTable = table;
+            currentSongIndex = table.getSelectedRow();
         }
     }
 
     private void nextSong() {
-        if (currentPlaylist.isEmpty()) {
+        if (playingSongs.isEmpty()) {
             JOptionPane.showMessageDialog(this, "No songs available to play.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        stopSong();  // Stop any currently playing song
-
         if (isShuffleEnabled) {
             shufflePlay(); // Play a random song if shuffle is enabled
         } else {
-            currentSongIndex = (currentSongIndex + 1) % currentPlaylist.size(); // Move to the next song
-            songTable.setRowSelectionInterval(currentSongIndex, currentSongIndex); // Highlight the next song in the UI
-            playSong(); // Play the next song
+            play(playingSongs, playingTable, (currentSongIndex + 1) % playingSongs.size()); // Play the next song
         }
     }
 
+    // On shuffle, goes back through the songs played; at the first one, starts it over
     private void previousSong() {
-        if (!currentPlaylist.isEmpty()) {
-            stopSong();
-            currentSongIndex = (currentSongIndex - 1 + currentPlaylist.size()) % currentPlaylist.size();
-            songTable.setRowSelectionInterval(currentSongIndex, currentSongIndex);
-            playSong();
+        if (playingSongs.isEmpty()) {
+            return;
+        }
+        if (isShuffleEnabled) {
+            int index = shuffler.peekPrevious(playingSongs);
+            if (index == -1 && currentSongIndex >= 0 && currentSongIndex < playingSongs.size()) {
+                index = currentSongIndex;
+            }
+            if (index != -1) {
+                play(playingSongs, playingTable, index);
+            }
+        } else {
+            play(playingSongs, playingTable, (currentSongIndex - 1 + playingSongs.size()) % playingSongs.size());
         }
     }
 
+    // The song the shuffle drew in advance, which the player may already be decoding
     private void shufflePlay() {
-        Random random = new Random();
-        currentSongIndex = random.nextInt(currentPlaylist.size());
-        songTable.setRowSelectionInterval(currentSongIndex, currentSongIndex);
-        playSong();
+        int index = shuffler.peekNext(playingSongs);
+        if (index != -1) {
+            play(playingSongs, playingTable, index);
+        }
+    }
+
+    // Picks the song that follows the current one: the same song on repeat, the shuffle's next on shuffle
+    private int computeNextIndex() {
+        if (playingSongs.isEmpty() || currentSongIndex < 0) {
+            return -1;
+        }
+        if (isRepeatEnabled) {
+            return currentSongIndex;
+        }
+        if (isShuffleEnabled) {
+            return shuffler.peekNext(playingSongs);
+        }
+        return (currentSongIndex + 1) % playingSongs.size();
+    }
+
+    // Lets the player pre-decode the upcoming song so it starts without a gap
+    private void queueNextTrack() {
+        if (!isGaplessEnabled || currentSongIndex >= playingSongs.size()) {
+            nextSongIndex = -1;
+            mp3Player.setNextTrack(null);
+            return;
+        }
+        nextSongIndex = computeNextIndex();
+        mp3Player.setNextTrack(nextSongIndex != -1 ? playingSongs.get(nextSongIndex).getFilePath() : null);
     }
 
     private void toggleShuffle() {
         isShuffleEnabled = !isShuffleEnabled;
         shuffleButton.setText(isShuffleEnabled ? "Shuffle: ON" : "Shuffle: OFF");
+        if (timedSong != null) {
+            queueNextTrack();
+        }
     }
 
     private void toggleRepeat() {
         isRepeatEnabled = !isRepeatEnabled;
         repeatButton.setText(isRepeatEnabled ? "Repeat: ON" : "Repeat: OFF");
+        if (timedSong != null) {
+            queueNextTrack();
+        }
     }
 
-    private void loadSongsToTable() {
-        Set<Song> uniqueSongs = new LinkedHashSet<>(database.getAllSongs()); // LinkedHashSet maintains order and removes duplicates
-        songList.clear(); // Clear the existing list
-        songList.addAll(uniqueSongs); // Add all unique songs
-
-        refreshTableColumns();
-        for (Song song : songList) {
-            addSongToTable(song);
+    private void toggleGapless(boolean enabled) {
+        isGaplessEnabled = enabled;
+        mp3Player.setGapless(enabled);
+        if (timedSong != null) {
+            queueNextTrack();
         }
     }
 
-    private void addSongToTable(Song song) {
-        List<String> visibleColumns = new ArrayList<>();
-        for (Map.Entry<String, Boolean> entry : columnVisibility.entrySet()) {
+    private void loadSongsToTable() {
+        showLibrary(); // The library cache is always current, so there is no need to re-read the database
+    }
+
+    // Shows currentPlaylist with the visible columns; the table reads the songs from the list itself
+    private void refreshTableColumns() {
+        List<SongTableModel.Column> visibleColumns = new ArrayList<>();
+        for (Map.Entry<SongTableModel.Column, Boolean> entry : columnVisibility.entrySet()) {
             if (entry.getValue()) {
                 visibleColumns.add(entry.getKey());
             }
         }
+        tableModel.setColumns(visibleColumns);
+        songSorter.sort(currentPlaylist);
+        tableModel.setSongs(currentPlaylist);
+        if (attachedPlaylist != null) {
+            playlistRegistry.reordered(attachedPlaylist); // Playlist windows share the sorted list
+        }
+        if (songTable.getModel() != tableModel) {
+            songTable.setModel(tableModel); // Back from the playlist names
+        }
+    }
 
-        Object[] row = new Object[visibleColumns.size()];
-        int colIndex = 0;
-        for (String column : visibleColumns) {
-            switch (column) {
-                case "Title":
-                    row[colIndex++] = song.getTitle();
-                    break;
-                case "Artist":
-                    row[colIndex++] = song.getArtist();
-                    break;
-                case "Album":
-                    row[colIndex++] = song.getAlbum();
-                    break;
-                case "Year":
-                    row[colIndex++] = song.getYear();
-                    break;
-                case "Genre":
-                    row[colIndex++] = song.getGenre();
-                    break;
-                case "Comment":
-                    row[colIndex++] = song.getComment();
-                    break;
+    // Re-sorts the rows shown, keeping the selected song selected
+    private void sortCurrentView() {
+        int selectedRow = songTable.getSelectedRow();
+        Song selected = selectedRow != -1 ? currentPlaylist.get(selectedRow) : null;
+        songSorter.sort(currentPlaylist);
+        if (attachedPlaylist != null) {
+            playlistRegistry.reordered(attachedPlaylist); // Includes this table
+        } else {
+            tableModel.fireTableDataChanged();
+        }
+        songTable.getTableHeader().repaint();
+        if (selected != null) {
+            int row = indexOfSong(currentPlaylist, selected);
+            if (row != -1) {
+                songTable.setRowSelectionInterval(row, row);
+                songTable.scrollRectToVisible(songTable.getCellRect(row, 0, true));
             }
         }
-        tableModel.addRow(row);
+        followPlayingSong();
     }
 
-    private void refreshTableColumns() {
-        tableModel.setRowCount(0); // Clear the table
-        tableModel.setColumnCount(0); // Clear all columns
+    // The arrow of the primary sort column
+    private Icon sortIcon(int viewColumn) {
+        if (songTable.getModel() != tableModel || !songSorter.isSorted()) {
+            return null;
+        }
+        SongSorter.SortKey primary = songSorter.getSortKeys().get(0);
+        if (tableModel.getColumn(songTable.convertColumnIndexToModel(viewColumn)) != primary.getColumn()) {
+            return null;
+        }
+        return UIManager.getIcon(primary.isAscending() ? "Table.ascendingSortIcon" : "Table.descendingSortIcon");
+    }
 
-        List<String> visibleColumns = new ArrayList<>();
-        for (Map.Entry<String, Boolean> entry : columnVisibility.entrySet()) {
-            if (entry.getValue()) {
-                tableModel.addColumn(entry.getKey());
-                visibleColumns.add(entry.getKey());
+    // The row of this very Song object; playlists may hold copies that are equal but not the same
+    private static int indexOfSong(List<Song> songs, Song song) {
+        for (int row = 0; row < songs.size(); row++) {
+            if (songs.get(row) == song) {
+                return row;
             }
         }
+        return -1;
+    }
 
-        if (!visibleColumns.isEmpty()) {
-            for (Song song : currentPlaylist) {
-                addSongToTable(song);
-            }
+    // After rows moved, points currentSongIndex at the playing song again so Next continues from it
+    private void followPlayingSong() {
+        if (timedSong == null || currentSongIndex < 0
+                || (currentSongIndex < playingSongs.size() && playingSongs.get(currentSongIndex) == timedSong)) {
+            return;
+        }
+        int row = indexOfSong(playingSongs, timedSong);
+        if (row != -1) {
+            currentSongIndex = row;
+            queueNextTrack();
         }
     }
 
     private void showColumnSelectionMenu(MouseEvent e) {
         JPopupMenu columnMenu = new JPopupMenu();
 
-        for (String columnName : columnVisibility.keySet()) {
-            JCheckBoxMenuItem item = new JCheckBoxMenuItem(columnName, columnVisibility.get(columnName));
+        for (SongTableModel.Column column : columnVisibility.keySet()) {
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(column.getTitle(), columnVisibility.get(column));
             item.addActionListener(ev -> {
-                columnVisibility.put(columnName, item.isSelected());
-                refreshTableColumns();
-                loadSongsToTable();
+                columnVisibility.put(column, item.isSelected());
+                refreshTableColumns(); // Re-renders the current view from memory
             });
             columnMenu.add(item);
         }
@@ -893,39 +1165,247 @@ public class MyTunesFrame extends JFrame {
     }
 
     public void addSongsByDragAndDrop(List<File> files, boolean fromLibrary, String playlistName) {
+        importFiles(files, playlistName);
+    }
+
+    private void importFolder() {
+        JFileChooser folderChooser = new JFileChooser();
+        folderChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        folderChooser.setMultiSelectionEnabled(true);
+        if (folderChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            importFiles(Arrays.asList(folderChooser.getSelectedFiles()), null);
+        }
+    }
+
+    // Imports files and folder trees in the background. Each batch is added to the library (and the
+    // playlist, if given) as it completes; a progress dialog with a Cancel button appears if the
+    // import takes more than a moment.
+    private void importFiles(List<File> files, String playlistName) {
         String currentView = getCurrentView();
+        FolderImporter importer = new FolderImporter(libraryCache, metadataExtractor);
+        importer.setDuplicateMode(duplicateMode);
+        ProgressDialog progressDialog = new ProgressDialog("Importing", "Looking for files...", importer::cancel);
 
-        for (File file : files) {
-            Song newSong = Song.fromFile(file);
+        SwingWorker<FolderImporter.Progress, FolderImporter.Progress> worker = new SwingWorker<>() {
+            @Override
+            protected FolderImporter.Progress doInBackground() throws Exception {
+                return importer.importFiles(files, new FolderImporter.Listener() {
+                    @Override
+                    public void batchImported(List<Song> songs) {
+                        // Allow adding the songs to the playlist regardless of whether they were in the library
+                        if (playlistName != null && !songs.isEmpty()) {
+                            playlistRegistry.addSongs(playlistName, songs); // Open windows show them once written
+                        }
+                    }
 
-            // Check if the song already exists in the library
-            boolean songExistsInLibrary = songList.stream()
-                    .anyMatch(s -> s.getFilePath().equals(newSong.getFilePath()));
+                    @Override
+                    public void progress(FolderImporter.Progress progress) {
+                        publish(progress);
+                    }
+                });
+            }
 
-            Song songToAdd;
+            @Override
+            protected void process(List<FolderImporter.Progress> updates) {
+                // Only the latest one matters; the total keeps growing until the walk is done
+                FolderImporter.Progress progress = updates.get(updates.size() - 1);
+                progressDialog.update(progress.getFilesProcessed(), progress.getFilesFound(),
+                        String.format("%d songs added, %d duplicates, %.0f files/s",
+                                progress.getSongsAdded(), progress.getDuplicates(), progress.getFilesPerSecond()));
+            }
 
-            if (!songExistsInLibrary) {
-                // Add to library if it doesn't exist
-                songList.add(newSong);
-                database.addSong(newSong);
-                loadSongsToTable();  // Refresh the library view to show the new song
-                songToAdd = newSong;
-            } else {
-                // The song already exists in the library, retrieve it
-                songToAdd = songList.stream()
-                        .filter(s -> s.getFilePath().equals(newSong.getFilePath()))
-                        .findFirst()
-                        .orElse(newSong);
+            @Override
+            protected void done() {
+                progressDialog.close();
+                try {
+                    FolderImporter.Progress result = get();
+                    if (result.getFilesProcessed() > 0) {
+                        showStatus("Import " + (result.isCancelled() ? "cancelled: " : "finished: ") + result
+                                + "; tags: " + metadataExtractor.getStats());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                restoreView(currentView);
             }
+        };
+        worker.execute();
+        progressDialog.showLater(worker);
+    }
 
-            // Allow adding the song to the playlist regardless of whether it's in the library
-            if (playlistName != null && songToAdd != null) {
-                database.addSongToPlaylist(songToAdd, playlistName);
-                refreshPlaylistWindow(playlistName);  // Refresh the playlist window to show the new song
+    // Brings the library up to date with the disk in the background, then watches for live changes
+    private void startLibraryWatch() {
+        new SwingWorker<LibraryScanner.Result, Void>() {
+            @Override
+            protected LibraryScanner.Result doInBackground() throws Exception {
+                return libraryScanner.rescan();
             }
+
+            @Override
+            protected void done() {
+                try {
+                    showStatus("Library rescan: " + get());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                try {
+                    folderWatcher = new FolderWatcher(libraryScanner,
+                            result -> SwingUtilities.invokeLater(() -> showStatus("Library changed: " + result)));
+                    folderWatcher.start();
+                } catch (IOException e) {
+                    e.printStackTrace(); // Changes are still picked up by the next rescan
+                }
+            }
+        }.execute();
+    }
+
+    // The tooltip holds the whole text when the window is too narrow for it
+    private void showStatus(String status) {
+        statusLabel.setText(status);
+        statusLabel.setToolTipText(status);
+    }
+
+    private void rescanLibrary() {
+        new SwingWorker<LibraryScanner.Result, Void>() {
+            @Override
+            protected LibraryScanner.Result doInBackground() throws Exception {
+                return libraryScanner.rescan();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    LibraryScanner.Result result = get();
+                    JOptionPane.showMessageDialog(MyTunesFrame.this, result.toString(), "Rescan Library", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private void addDuplicateModeItem(JMenu menu, ButtonGroup group, String label, FolderImporter.DuplicateMode mode) {
+        JRadioButtonMenuItem item = new JRadioButtonMenuItem(label, mode == duplicateMode);
+        item.addActionListener(e -> {
+            duplicateMode = mode;
+            // Hash while the tags are read, so duplicates are found without reading files twice
+            metadataExtractor.setHashingAudio(mode != FolderImporter.DuplicateMode.IMPORT);
+        });
+        group.add(item);
+        menu.add(item);
+    }
+
+    // Hashes songs imported without an audio hash, then lists the songs that share their audio
+    private void findDuplicates() {
+        DuplicateFinder finder = new DuplicateFinder(libraryCache, database, metadataExtractor);
+        ProgressDialog progressDialog = new ProgressDialog("Find Duplicates", "Hashing audio...", finder::cancel);
+
+        SwingWorker<List<List<Song>>, Integer> worker = new SwingWorker<>() {
+            private int total;
+
+            @Override
+            protected List<List<Song>> doInBackground() throws Exception {
+                total = finder.countUnhashed();
+                finder.hashMissing(this::publish);
+                return finder.isCancelled() ? null : finder.findDuplicates();
+            }
+
+            @Override
+            protected void process(List<Integer> updates) {
+                progressDialog.update(updates.get(updates.size() - 1), total, "Hashing audio...");
+            }
+
+            @Override
+            protected void done() {
+                progressDialog.close();
+                try {
+                    List<List<Song>> groups = get();
+                    if (groups != null) {
+                        showDuplicateReport(groups);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        worker.execute();
+        progressDialog.showLater(worker);
+    }
+
+    private void showDuplicateReport(List<List<Song>> groups) {
+        if (groups.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No duplicate songs found.", "Find Duplicates", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        StringBuilder report = new StringBuilder();
+        int copies = 0;
+        for (List<Song> group : groups) {
+            Song first = group.get(0);
+            report.append(first.getArtist()).append(" - ").append(first.getTitle())
+                    .append(" (").append(group.size()).append(" copies)\n");
+            for (Song song : group) {
+                report.append("    ").append(song.getFilePath()).append('\n');
+            }
+            copies += group.size() - 1;
         }
+        JTextArea reportArea = new JTextArea(report.toString());
+        reportArea.setEditable(false);
+        JScrollPane scrollPane = new JScrollPane(reportArea);
+        scrollPane.setPreferredSize(new Dimension(600, 400));
+        JOptionPane.showMessageDialog(this, scrollPane, groups.size() + " songs with " + copies + " extra copies",
+                JOptionPane.INFORMATION_MESSAGE);
+    }
 
-        restoreView(currentView);
+    private void showWatchedFolders() {
+        asyncDatabase.supply(db -> libraryScanner.getWatchedFolders()).thenAccept(this::showWatchedFolders);
+    }
+
+    private void showWatchedFolders(List<String> watchedFolders) {
+        DefaultListModel<String> folders = new DefaultListModel<>();
+        for (String folder : watchedFolders) {
+            folders.addElement(folder);
+        }
+        JList<String> folderList = new JList<>(folders);
+
+        JButton addButton = new JButton("Add...");
+        addButton.addActionListener(e -> {
+            JFileChooser folderChooser = new JFileChooser();
+            folderChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (folderChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                File folder = folderChooser.getSelectedFile();
+                if (!folders.contains(folder.getAbsolutePath())) {
+                    asyncDatabase.run(db -> libraryScanner.addWatchedFolder(folder));
+                    folders.addElement(folder.getAbsolutePath());
+                    if (folderWatcher != null) {
+                        folderWatcher.watch(folder.toPath());
+                    }
+                    importFiles(Collections.singletonList(folder), null); // Picks up what is already there
+                }
+            }
+        });
+
+        JButton removeButton = new JButton("Remove");
+        removeButton.addActionListener(e -> {
+            String folder = folderList.getSelectedValue();
+            if (folder != null) {
+                // Songs already imported from the folder stay in the library
+                asyncDatabase.run(db -> libraryScanner.removeWatchedFolder(folder));
+                folders.removeElement(folder);
+                if (folderWatcher != null) {
+                    folderWatcher.unwatch(new File(folder).toPath());
+                }
+            }
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(addButton);
+        buttons.add(removeButton);
+        JPanel panel = new JPanel(new BorderLayout());
+        JScrollPane scrollPane = new JScrollPane(folderList);
+        scrollPane.setPreferredSize(new Dimension(400, 150));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(buttons, BorderLayout.SOUTH);
+        JOptionPane.showMessageDialog(this, panel, "Watched Folders", JOptionPane.PLAIN_MESSAGE);
     }
 
     private String getCurrentView() {
@@ -970,37 +1450,246 @@ public class MyTunesFrame extends JFrame {
         return null;
     }
 
-    public void refreshPlaylistWindow(String playlistName) {
-        Frame[] frames = JFrame.getFrames();
-        for (Frame frame : frames) {
-            if (frame instanceof JFrame) {
-                JFrame jFrame = (JFrame) frame;
-                if (jFrame.getTitle().equals("Playlist - " + playlistName)) {
-                    DefaultTableModel newTableModel = (DefaultTableModel) ((JTable) ((JScrollPane) ((JPanel) jFrame.getContentPane()).getComponent(0)).getViewport().getView()).getModel();
-                    newTableModel.setRowCount(0);
-                    List<Song> songs = database.getSongsFromPlaylist(playlistName);
-                    for (Song song : songs) {
-                        newTableModel.addRow(new Object[]{song.getTitle(), song.getArtist(), song.getAlbum(), song.getYear(), song.getGenre(), song.getComment()});
-                    }
-                    break;
-                }
-            }
+    // Edited comments are saved to the library, whichever table they were edited in
+    private void saveComment(Song song) {
+        Song cached = libraryCache.getByPath(song.getFilePath()); // Playlists hold their own copies
+        if (cached != null) {
+            Song edited = cached.copy(cached.getFilePath());
+            edited.setComment(song.getComment());
+            asyncDatabase.run(db -> libraryCache.updateSong(edited));
         }
     }
 
     public Song getSongFromRow(int rowIndex) {
-        return songList.get(rowIndex);
+        return currentPlaylist.get(rowIndex); // The rows shown, which may be a search result or a playlist
     }
 
     public JTree getPlaylistTree() {
         return playlistTree;
     }
 
-    public DefaultTableModel getTableModel() {
+    public SongTableModel getTableModel() {
         return tableModel;
     }
 
     public List<Song> getSongList() {
-        return songList;
+        return libraryCache.getSongs();
+    }
+
+    public LibraryCache getLibraryCache() {
+        return libraryCache;
+    }
+
+    // Player events come from the player's worker thread, so the UI work is moved to the EDT
+    private class PlayerEventHandler implements MP3Player.Listener {
+        @Override
+        public void stateChanged(MP3Player.State state) {
+            SwingUtilities.invokeLater(() -> {
+                if (songTimer == null) {
+                    return;
+                }
+                if (state == MP3Player.State.PLAYING) {
+                    songTimer.start();
+                } else {
+                    songTimer.stop();
+                }
+            });
+        }
+
+        @Override
+        public void trackStarted(String filePath) {
+            SwingUtilities.invokeLater(() -> {
+                if (nextSongIndex < 0 || nextSongIndex >= playingSongs.size()) {
+                    return;
+                }
+                Song song = playingSongs.get(nextSongIndex);
+                if (!song.getFilePath().equals(filePath)) {
+                    return;
+                }
+                currentSongIndex = nextSongIndex;
+                highlightCurrentSong();
+                shuffler.playing(playingSongs, currentSongIndex);
+                playHistory.recordPlay(song);
+                initializeAndStartTimer(song);
+                queueNextTrack();
+            });
+        }
+
+        @Override
+        public void playbackEnded(String filePath) {
+            SwingUtilities.invokeLater(() -> {
+                if (timedSong == null || !timedSong.getFilePath().equals(filePath)) {
+                    return; // A different song was started in the meantime
+                }
+                if (songTimer != null) {
+                    songTimer.stop();
+                }
+                if (isRepeatEnabled && currentSongIndex >= 0 && currentSongIndex < playingSongs.size()) {
+                    play(playingSongs, playingTable, currentSongIndex);
+                } else if (isShuffleEnabled) {
+                    shufflePlay();
+                } else {
+                    nextSong();
+                }
+            });
+        }
+    }
+
+    // Applies library changes to the table incrementally while the library is shown
+    private class LibraryViewUpdater implements LibraryCache.Listener {
+        @Override
+        public void songsAdded(List<Song> songs) {
+            if (!SwingUtilities.isEventDispatchThread()) {
+                SwingUtilities.invokeLater(() -> songsAdded(songs)); // Background imports add songs too
+                return;
+            }
+            if (isLibraryView && !songs.isEmpty()) {
+                Predicate<Song> matchesSearch = searchIndex.matcher(searchQuery);
+                List<Song> shown = new ArrayList<>(songs.size());
+                for (Song song : songs) {
+                    if (matchesSearch.test(song)) {
+                        shown.add(song);
+                    }
+                }
+                if (shown.isEmpty()) {
+                    return;
+                }
+                // A showLibrary that ran after the cache took these songs, but before this event
+                // arrived, already shows them
+                Set<Song> notShown = new LinkedHashSet<>(shown);
+                for (Song row : currentPlaylist) {
+                    if (notShown.remove(row) && notShown.isEmpty()) {
+                        return;
+                    }
+                }
+                shown = new ArrayList<>(notShown);
+                if (!songSorter.isSorted()) {
+                    // One insert event for the whole batch instead of one per row
+                    int firstRow = currentPlaylist.size();
+                    currentPlaylist.addAll(shown);
+                    tableModel.fireTableRowsInserted(firstRow, currentPlaylist.size() - 1);
+                } else if (shown.size() > currentPlaylist.size() / 10) {
+                    currentPlaylist.addAll(shown); // Cheaper to sort again than to insert one at a time
+                    sortCurrentView();
+                } else {
+                    songSorter.insert(currentPlaylist, shown, row -> tableModel.fireTableRowsInserted(row, row));
+                    followPlayingSong();
+                }
+            }
+        }
+
+        @Override
+        public void songsRemoved(List<Song> songs) {
+            if (!SwingUtilities.isEventDispatchThread()) {
+                SwingUtilities.invokeLater(() -> songsRemoved(songs)); // Rescans remove songs in the background
+                return;
+            }
+            if (isLibraryView) {
+                // One pass over the rows, from the bottom so row numbers stay valid; adjacent rows
+                // are deleted with one event
+                Set<Song> removed = new HashSet<>(songs);
+                int row = currentPlaylist.size() - 1;
+                while (row >= 0) {
+                    int last = row;
+                    while (row >= 0 && removed.contains(currentPlaylist.get(row))) {
+                        row--;
+                    }
+                    if (row < last) {
+                        currentPlaylist.subList(row + 1, last + 1).clear();
+                        tableModel.fireTableRowsDeleted(row + 1, last);
+                    } else {
+                        row--;
+                    }
+                }
+                followPlayingSong();
+            }
+        }
+
+        @Override
+        public void songUpdated(Song song) {
+            if (!SwingUtilities.isEventDispatchThread()) {
+                SwingUtilities.invokeLater(() -> songUpdated(song));
+                return;
+            }
+            if (!isLibraryView || songTable.getModel() != tableModel) {
+                return; // Playlist views are updated by the PlaylistRegistry
+            }
+            for (int row = 0; row < currentPlaylist.size(); row++) {
+                if (currentPlaylist.get(row).equals(song)) {
+                    currentPlaylist.set(row, song);
+                    if (songSorter.isSorted() && !songSorter.isInOrder(currentPlaylist, row)) {
+                        // Its tags moved it elsewhere in the sort order
+                        currentPlaylist.remove(row);
+                        tableModel.fireTableRowsDeleted(row, row);
+                        songSorter.insert(currentPlaylist, Collections.singletonList(song), inserted -> tableModel.fireTableRowsInserted(inserted, inserted));
+                        followPlayingSong();
+                        return;
+                    }
+                    tableModel.fireTableRowsUpdated(row, row);
+                }
+            }
+        }
+    }
+
+    // Shows the progress of a background task, with a Cancel button
+    private class ProgressDialog extends JDialog {
+        private static final long serialVersionUID = 1L;
+        private static final int SHOW_DELAY_MILLIS = 500;
+
+        private final JLabel statusLabel;
+        private final JProgressBar progressBar = new JProgressBar();
+        private Timer showTimer;
+
+        ProgressDialog(String title, String initialStatus, Runnable onCancel) {
+            super(MyTunesFrame.this, title, false);
+            statusLabel = new JLabel(initialStatus);
+            progressBar.setStringPainted(true);
+            progressBar.setIndeterminate(true);
+
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> {
+                onCancel.run();
+                statusLabel.setText("Cancelling...");
+                cancelButton.setEnabled(false);
+            });
+
+            JPanel panel = new JPanel(new BorderLayout(8, 8));
+            panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+            panel.add(statusLabel, BorderLayout.NORTH);
+            panel.add(progressBar, BorderLayout.CENTER);
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+            buttonPanel.add(cancelButton);
+            panel.add(buttonPanel, BorderLayout.SOUTH);
+            setContentPane(panel);
+            setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+            setSize(420, 140);
+            setLocationRelativeTo(MyTunesFrame.this);
+        }
+
+        // Small imports finish before the dialog would be noticed, so it only appears if still running
+        void showLater(SwingWorker<?, ?> worker) {
+            showTimer = new Timer(SHOW_DELAY_MILLIS, e -> {
+                if (!worker.isDone()) {
+                    setVisible(true);
+                }
+            });
+            showTimer.setRepeats(false);
+            showTimer.start();
+        }
+
+        void update(int done, int total, String status) {
+            progressBar.setIndeterminate(false);
+            progressBar.setMaximum(Math.max(1, total));
+            progressBar.setValue(done);
+            progressBar.setString(done + " / " + total);
+            statusLabel.setText(status);
+        }
+
+        void close() {
+            if (showTimer != null) {
+                showTimer.stop();
+            }
+            dispose();
+        }
     }
 }
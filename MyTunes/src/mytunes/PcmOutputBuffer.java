@@ -0,0 +1,72 @@
+package mytunes;
+
+import javazoom.jl.decoder.Obuffer;
+
+// Output buffer handed to JLayer's Decoder. The synthesis filter's samples are clipped and written
+// straight into an interleaved 16-bit little-endian byte array, allocated once, that can go to the
+// audio line as is; SampleBuffer would need a short[] and a second copy loop per frame.
+class PcmOutputBuffer extends Obuffer {
+    private final byte[] pcm = new byte[OBUFFERSIZE * 2];
+    private final int[] writePos = new int[MAXCHANNELS];
+    private final int channels;
+
+    PcmOutputBuffer(int channels) {
+        this.channels = channels;
+        clear_buffer();
+    }
+
+    @Override
+    public void append(int channel, short value) {
+        int pos = writePos[channel];
+        pcm[pos] = (byte) value;
+        pcm[pos + 1] = (byte) (value >> 8);
+        writePos[channel] = pos + channels * 2;
+    }
+
+    @Override
+    public void appendSamples(int channel, float[] samples) {
+        int pos = writePos[channel];
+        int step = channels * 2;
+        for (int i = 0; i < 32; i++) {
+            float sample = samples[i];
+            int value = sample > 32767.0f ? 32767 : sample < -32767.0f ? -32767 : (int) sample;
+            pcm[pos] = (byte) value;
+            pcm[pos + 1] = (byte) (value >> 8);
+            pos += step;
+        }
+        writePos[channel] = pos;
+    }
+
+    @Override
+    public void clear_buffer() {
+        for (int channel = 0; channel < channels; channel++) {
+            writePos[channel] = channel * 2;
+        }
+    }
+
+    @Override
+    public void write_buffer(int value) {
+        // The caller reads the bytes directly
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void set_stop_flag() {
+    }
+
+    byte[] getBytes() {
+        return pcm;
+    }
+
+    // Bytes decoded since the last clear_buffer(), all channels included
+    int getLength() {
+        return writePos[0];
+    }
+
+    int getChannels() {
+        return channels;
+    }
+}
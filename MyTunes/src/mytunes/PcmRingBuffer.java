@@ -0,0 +1,61 @@
+package mytunes;
+
+// Fixed-size circular byte buffer for decoded PCM audio. The backing array is allocated once;
+// reads and writes copy in at most two chunks and never allocate.
+public class PcmRingBuffer {
+    private final byte[] buffer;
+    private int readPos = 0;
+    private int writePos = 0;
+    private int size = 0;
+
+    public PcmRingBuffer(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    // Copies as much of src as fits; returns the number of bytes written
+    public synchronized int write(byte[] src, int offset, int length) {
+        int count = Math.min(length, buffer.length - size);
+        int first = Math.min(count, buffer.length - writePos);
+        System.arraycopy(src, offset, buffer, writePos, first);
+        System.arraycopy(src, offset + first, buffer, 0, count - first);
+        writePos = (writePos + count) % buffer.length;
+        size += count;
+        if (count > 0) {
+            notifyAll();
+        }
+        return count;
+    }
+
+    // Copies up to length buffered bytes into dst; returns the number of bytes read
+    public synchronized int read(byte[] dst, int offset, int length) {
+        int count = Math.min(length, size);
+        int first = Math.min(count, buffer.length - readPos);
+        System.arraycopy(buffer, readPos, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, count - first);
+        readPos = (readPos + count) % buffer.length;
+        size -= count;
+        if (count > 0) {
+            notifyAll();
+        }
+        return count;
+    }
+
+    public synchronized int available() {
+        return size;
+    }
+
+    public synchronized int free() {
+        return buffer.length - size;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public synchronized void clear() {
+        readPos = 0;
+        writePos = 0;
+        size = 0;
+        notifyAll();
+    }
+}
@@ -0,0 +1,159 @@
+package mytunes;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Records song plays for the "Recent" playlist without touching the database on the
+// calling (Swing) thread. Plays are queued, coalesced per song and written in one batch
+// every flush interval. If the database is unreachable the plays are appended to a local
+// spool file and replayed on the next successful flush; plays the database can never accept,
+// such as those of songs deleted since, are dropped instead of being spooled again.
+public class PlayHistoryRecorder implements AutoCloseable {
+
+    // One or more plays of a song, coalesced; playedAt is the most recent play
+    public static class PlayEvent {
+        private final int songId;
+        private long playedAt;
+        private int count;
+
+        public PlayEvent(int songId, long playedAt, int count) {
+            this.songId = songId;
+            this.playedAt = playedAt;
+            this.count = count;
+        }
+
+        public int getSongId() {
+            return songId;
+        }
+
+        public long getPlayedAt() {
+            return playedAt;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        void merge(PlayEvent other) {
+            playedAt = Math.max(playedAt, other.playedAt);
+            count += other.count;
+        }
+    }
+
+    private final Database database;
+    private final File spoolFile;
+    private final int maxRecent;
+    private final ConcurrentLinkedQueue<PlayEvent> queue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService flusher;
+
+    public PlayHistoryRecorder(Database database) {
+        this(database, new File("play_history.spool"), 100, 5000);
+    }
+
+    public PlayHistoryRecorder(Database database, File spoolFile, int maxRecent, long flushIntervalMillis) {
+        this.database = database;
+        this.spoolFile = spoolFile;
+        this.maxRecent = maxRecent;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PlayHistoryRecorder");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Safe to call from any thread; returns immediately
+    public void recordPlay(Song song) {
+        if (song.getId() > 0) {
+            queue.add(new PlayEvent(song.getId(), System.currentTimeMillis(), 1));
+        }
+    }
+
+    // Writes everything queued so far (plus anything spooled by an earlier failure)
+    public synchronized void flush() {
+        Map<Integer, PlayEvent> pending = new LinkedHashMap<>();
+        for (PlayEvent event : readSpool()) {
+            coalesce(pending, event);
+        }
+        boolean hadSpool = !pending.isEmpty();
+
+        PlayEvent event;
+        while ((event = queue.poll()) != null) {
+            coalesce(pending, event);
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        if (database.recordPlays(pending.values(), maxRecent)) { // Also true for plays it had to drop
+            if (hadSpool && !spoolFile.delete()) {
+                System.err.println("Could not delete play history spool " + spoolFile);
+            }
+        } else {
+            // Rewrite the spool with the coalesced events so it doesn't grow with repeated failures
+            writeSpool(pending.values(), !hadSpool);
+        }
+    }
+
+    private static void coalesce(Map<Integer, PlayEvent> pending, PlayEvent event) {
+        PlayEvent existing = pending.get(event.getSongId());
+        if (existing == null) {
+            pending.put(event.getSongId(), new PlayEvent(event.getSongId(), event.getPlayedAt(), event.getCount()));
+        } else {
+            existing.merge(event);
+        }
+    }
+
+    private List<PlayEvent> readSpool() {
+        List<PlayEvent> events = new ArrayList<>();
+        if (!spoolFile.exists()) {
+            return events;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(spoolFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 3) {
+                    try {
+                        events.add(new PlayEvent(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2])));
+                    } catch (NumberFormatException e) {
+                        // Skip a line torn by a crash mid-write
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return events;
+    }
+
+    private void writeSpool(Collection<PlayEvent> events, boolean append) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(spoolFile, append))) {
+            for (PlayEvent event : events) {
+                writer.write(event.getSongId() + "\t" + event.getPlayedAt() + "\t" + event.getCount());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+}
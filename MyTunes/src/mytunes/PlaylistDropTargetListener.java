@@ -6,14 +6,16 @@ import javax.swing.tree.TreePath;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.dnd.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PlaylistDropTargetListener extends DropTargetAdapter {
     private MyTunesFrame frame;
-    private Database database;
+    private PlaylistRegistry playlists;
 
-    public PlaylistDropTargetListener(MyTunesFrame frame, Database database) {
+    public PlaylistDropTargetListener(MyTunesFrame frame, PlaylistRegistry playlists) {
         this.frame = frame;
-        this.database = database;
+        this.playlists = playlists;
     }
 
     @Override
@@ -38,13 +40,14 @@ public class PlaylistDropTargetListener extends DropTargetAdapter {
             String playlistName = node.getUserObject().toString();
 
             int[] selectedRows = frame.getSongTable().getSelectedRows();
+            List<Song> songs = new ArrayList<>(selectedRows.length);
             for (int rowIndex : selectedRows) {
-                Song song = frame.getSongFromRow(rowIndex);
-                database.addSongToPlaylist(song, playlistName);
+                songs.add(frame.getSongFromRow(rowIndex));
             }
+            // One batch for the whole selection, written in the background; open windows get the new rows
+            playlists.addSongs(playlistName, songs);
 
             dtde.dropComplete(true);
-            frame.refreshPlaylistWindow(playlistName);
 
         } catch (Exception ex) {
             dtde.rejectDrop();
@@ -0,0 +1,180 @@
+package mytunes;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// The songs of the playlists open in windows. Each playlist is read from the database once, however
+// many windows show it, and every window's table reads the same list. Changes made through the
+// registry are written to the database and then applied to that list, and the windows get row
+// insert and delete events for just the rows that changed rather than reloading the playlist.
+// A playlist is dropped from the registry when its last window closes. Only used on the EDT,
+// except for the library events, which are moved there.
+public class PlaylistRegistry implements LibraryCache.Listener {
+
+    private static class PlaylistModel {
+        final List<Song> songs = new ArrayList<>();
+        final List<SongTableModel> views = new ArrayList<>();
+        CompletableFuture<Void> loaded;
+    }
+
+    private final AsyncDatabase database;
+    private final Map<String, PlaylistModel> models = new HashMap<>();
+
+    public PlaylistRegistry(AsyncDatabase database) {
+        this.database = database;
+    }
+
+    // Shows the playlist in view, reading it only if no other window has it open. The future
+    // completes on the EDT once the playlist's songs are in the view.
+    public CompletableFuture<Void> attach(String playlistName, SongTableModel view) {
+        PlaylistModel model = models.get(playlistName);
+        if (model == null) {
+            PlaylistModel loading = new PlaylistModel();
+            models.put(playlistName, loading);
+            // Changes queued after this read are applied once it is in, as the database runs calls in order
+            loading.loaded = database.getSongsFromPlaylist(playlistName).thenAccept(songs -> {
+                if (models.get(playlistName) == loading && !songs.isEmpty()) {
+                    loading.songs.addAll(songs);
+                    fireInserted(loading, 0, songs.size() - 1);
+                }
+            });
+            model = loading;
+        }
+        model.views.add(view);
+        view.setSongs(model.songs);
+        return model.loaded;
+    }
+
+    // Repaints every view of the playlist after one of them sorted the list they share
+    public void reordered(String playlistName) {
+        PlaylistModel model = models.get(playlistName);
+        if (model != null) {
+            for (SongTableModel view : model.views) {
+                view.fireTableDataChanged();
+            }
+        }
+    }
+
+    public void detach(String playlistName, SongTableModel view) {
+        PlaylistModel model = models.get(playlistName);
+        if (model != null && model.views.remove(view) && model.views.isEmpty()) {
+            models.remove(playlistName);
+        }
+    }
+
+    // May be called from any thread; the windows are updated on the EDT once the songs are stored.
+    // A future that is already complete would run thenRun on the calling thread, so the update is
+    // always posted to the EDT.
+    public CompletableFuture<Void> addSongs(String playlistName, List<Song> songs) {
+        return database.addSongsToPlaylist(songs, playlistName)
+                .thenRunAsync(() -> songsAdded(playlistName, songs), SwingUtilities::invokeLater);
+    }
+
+    public CompletableFuture<Void> removeSong(String playlistName, Song song) {
+        return database.removeSongFromPlaylist(song, playlistName).thenRun(() -> {
+            PlaylistModel model = models.get(playlistName);
+            if (model != null) {
+                removeRows(model, Set.of(song));
+            }
+        });
+    }
+
+    // Empties the windows still showing a deleted playlist
+    public void playlistDeleted(String playlistName) {
+        PlaylistModel model = models.get(playlistName);
+        if (model != null && !model.songs.isEmpty()) {
+            int last = model.songs.size() - 1;
+            model.songs.clear();
+            fireDeleted(model, 0, last);
+        }
+    }
+
+    // Appends the songs the database added: like it, skips those already in the playlist
+    private void songsAdded(String playlistName, List<Song> songs) {
+        PlaylistModel model = models.get(playlistName);
+        if (model == null || "Recent".equalsIgnoreCase(playlistName)) {
+            return; // Not open, or the database refused a manual add to "Recent"
+        }
+        Set<Song> present = new HashSet<>(model.songs);
+        int firstRow = model.songs.size();
+        for (Song song : songs) {
+            if (present.add(song)) {
+                model.songs.add(song);
+            }
+        }
+        if (model.songs.size() > firstRow) {
+            fireInserted(model, firstRow, model.songs.size() - 1);
+        }
+    }
+
+    // Deletes matching rows from the bottom up, with one event per run of adjacent rows
+    private void removeRows(PlaylistModel model, Set<Song> removed) {
+        int row = model.songs.size() - 1;
+        while (row >= 0) {
+            int last = row;
+            while (row >= 0 && removed.contains(model.songs.get(row))) {
+                row--;
+            }
+            if (row < last) {
+                model.songs.subList(row + 1, last + 1).clear();
+                fireDeleted(model, row + 1, last);
+            } else {
+                row--;
+            }
+        }
+    }
+
+    private static void fireInserted(PlaylistModel model, int firstRow, int lastRow) {
+        for (SongTableModel view : model.views) {
+            view.fireTableRowsInserted(firstRow, lastRow);
+        }
+    }
+
+    private static void fireDeleted(PlaylistModel model, int firstRow, int lastRow) {
+        for (SongTableModel view : model.views) {
+            view.fireTableRowsDeleted(firstRow, lastRow);
+        }
+    }
+
+    @Override
+    public void songsAdded(List<Song> songs) {
+        // New library songs are not in any playlist yet
+    }
+
+    // Songs deleted from the library are gone from their playlists too
+    @Override
+    public void songsRemoved(List<Song> songs) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> songsRemoved(songs));
+            return;
+        }
+        Set<Song> removed = new HashSet<>(songs);
+        for (PlaylistModel model : models.values()) {
+            removeRows(model, removed);
+        }
+    }
+
+    @Override
+    public void songUpdated(Song song) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> songUpdated(song));
+            return;
+        }
+        for (PlaylistModel model : models.values()) {
+            for (int row = 0; row < model.songs.size(); row++) {
+                if (model.songs.get(row).equals(song)) {
+                    model.songs.set(row, song); // The playlist's own copy is replaced by the updated song
+                    for (SongTableModel view : model.views) {
+                        view.fireTableRowsUpdated(row, row);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package mytunes;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Versioned schema migrations, run once at startup. Each migration is applied at most
+// once and recorded in the schema_version table; new schema changes are added by
+// appending a migration with the next version number, never by editing an old one.
+public class SchemaMigrator {
+
+    public interface Migration {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    private static class VersionedMigration {
+        final int version;
+        final String description;
+        final Migration migration;
+
+        VersionedMigration(int version, String description, Migration migration) {
+            this.version = version;
+            this.description = description;
+            this.migration = migration;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final List<VersionedMigration> migrations = new ArrayList<>();
+
+    public SchemaMigrator(ConnectionPool pool) {
+        this.pool = pool;
+
+        add(1, "Create Songs, Playlists and PlaylistSongs tables", stmt -> {
+            // IF NOT EXISTS so that databases created before migrations existed are adopted as version 1
+            stmt.execute("CREATE TABLE IF NOT EXISTS Songs (" +
+                    "id INT AUTO_INCREMENT PRIMARY KEY," +
+                    "title VARCHAR(255)," +
+                    "artist VARCHAR(255)," +
+                    "album VARCHAR(255)," +
+                    "year VARCHAR(10)," +
+                    "genre VARCHAR(255)," +
+                    "comment TEXT," +
+                    "file_path VARCHAR(255) UNIQUE" +
+                    ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS Playlists (" +
+                    "id INT AUTO_INCREMENT PRIMARY KEY," +
+                    "name VARCHAR(255) UNIQUE NOT NULL" +
+                    ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS PlaylistSongs (" +
+                    "id INT AUTO_INCREMENT PRIMARY KEY," +
+                    "playlist_id INT," +
+                    "song_id INT," +
+                    "FOREIGN KEY (playlist_id) REFERENCES Playlists(id) ON DELETE CASCADE," +
+                    "FOREIGN KEY (song_id) REFERENCES Songs(id) ON DELETE CASCADE" +
+                    ")");
+        });
+
+        add(2, "Unique (playlist_id, song_id) on PlaylistSongs", stmt -> {
+            if (!indexExists(stmt, "PlaylistSongs", "uq_playlist_song")) {
+                // Older databases may hold the same song twice in a playlist; keep the first row
+                stmt.executeUpdate("DELETE a FROM PlaylistSongs a JOIN PlaylistSongs b " +
+                        "ON a.playlist_id = b.playlist_id AND a.song_id = b.song_id AND a.id > b.id");
+                stmt.execute("ALTER TABLE PlaylistSongs ADD UNIQUE KEY uq_playlist_song (playlist_id, song_id)");
+            }
+        });
+
+        add(3, "Indexes on Songs.artist, album and genre", stmt -> {
+            createIndexIfMissing(stmt, "Songs", "idx_songs_artist_album", "artist, album");
+            createIndexIfMissing(stmt, "Songs", "idx_songs_album", "album");
+            createIndexIfMissing(stmt, "Songs", "idx_songs_genre", "genre");
+        });
+
+        add(4, "Ordered playlists: PlaylistSongs.position", stmt -> {
+            addColumnIfMissing(stmt, "PlaylistSongs", "position", "INT NOT NULL DEFAULT 0");
+            // Existing rows keep their insertion order
+            stmt.executeUpdate("UPDATE PlaylistSongs SET position = id");
+            // Covers the playlist view: filter by playlist, read in order, join on song_id
+            createIndexIfMissing(stmt, "PlaylistSongs", "idx_playlist_position", "playlist_id, position, song_id");
+        });
+
+        add(5, "Play counts: SongPlays", stmt -> {
+            stmt.execute("CREATE TABLE IF NOT EXISTS SongPlays (" +
+                    "song_id INT PRIMARY KEY," +
+                    "play_count INT NOT NULL DEFAULT 0," +
+                    "last_played TIMESTAMP NULL," +
+                    "FOREIGN KEY (song_id) REFERENCES Songs(id) ON DELETE CASCADE" +
+                    ")");
+        });
+
+        add(6, "Frame index: Songs.duration_ms and frame_index", stmt -> {
+            addColumnIfMissing(stmt, "Songs", "duration_ms", "INT NULL");
+            addColumnIfMissing(stmt, "Songs", "frame_index", "MEDIUMBLOB NULL");
+        });
+
+        add(7, "Audio properties: Songs.bitrate_kbps and sample_rate", stmt -> {
+            addColumnIfMissing(stmt, "Songs", "bitrate_kbps", "INT NULL");
+            addColumnIfMissing(stmt, "Songs", "sample_rate", "INT NULL");
+        });
+
+        add(8, "Change detection: Songs.file_size and file_modified, WatchedFolders", stmt -> {
+            addColumnIfMissing(stmt, "Songs", "file_size", "BIGINT NULL");
+            addColumnIfMissing(stmt, "Songs", "file_modified", "BIGINT NULL");
+            stmt.execute("CREATE TABLE IF NOT EXISTS WatchedFolders (" +
+                    "id INT AUTO_INCREMENT PRIMARY KEY," +
+                    "path VARCHAR(255) UNIQUE NOT NULL" +
+                    ")");
+        });
+
+        add(9, "Duplicate detection: Songs.audio_hash", stmt -> {
+            addColumnIfMissing(stmt, "Songs", "audio_hash", "CHAR(64) NULL");
+            createIndexIfMissing(stmt, "Songs", "idx_songs_audio_hash", "audio_hash");
+        });
+    }
+
+    // Versions must increase in the order migrations are added, as they are applied in that order
+    private void add(int version, String description, Migration migration) {
+        if (!migrations.isEmpty() && version <= migrations.get(migrations.size() - 1).version) {
+            throw new IllegalArgumentException("Migration " + version + " is not newer than migration "
+                    + migrations.get(migrations.size() - 1).version);
+        }
+        migrations.add(new VersionedMigration(version, description, migration));
+    }
+
+    // Applies every migration newer than the recorded schema version, in order
+    public void migrate() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY," +
+                    "description VARCHAR(255) NOT NULL," +
+                    "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                    ")");
+
+            int current = getCurrentVersion(stmt);
+            for (VersionedMigration m : migrations) {
+                if (m.version <= current) {
+                    continue;
+                }
+                try {
+                    m.migration.apply(stmt);
+                } catch (SQLException e) {
+                    // Names the step in the trace Database prints; schema_version records the ones applied
+                    throw new SQLException("Schema migration " + m.version + " (" + m.description + ") failed", e);
+                }
+                try (PreparedStatement record = conn.prepareStatement(
+                        "INSERT INTO schema_version(version, description) VALUES(?, ?)")) {
+                    record.setInt(1, m.version);
+                    record.setString(2, m.description);
+                    record.executeUpdate();
+                }
+            }
+        }
+    }
+
+    public int getCurrentVersion() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            return getCurrentVersion(stmt);
+        }
+    }
+
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version;
+    }
+
+    private static int getCurrentVersion(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    static boolean indexExists(Statement stmt, String table, String indexName) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SHOW INDEX FROM " + table + " WHERE Key_name = '" + indexName + "'")) {
+            return rs.next();
+        }
+    }
+
+    static boolean columnExists(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SHOW COLUMNS FROM " + table + " LIKE '" + column + "'")) {
+            return rs.next();
+        }
+    }
+
+    // MySQL commits every ALTER TABLE on its own, so a migration that failed halfway may have added
+    // some of its columns already; checking first lets it run again
+    static void addColumnIfMissing(Statement stmt, String table, String column, String definition) throws SQLException {
+        if (!columnExists(stmt, table, column)) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    static void createIndexIfMissing(Statement stmt, String table, String indexName, String columns) throws SQLException {
+        if (!indexExists(stmt, table, indexName)) {
+            stmt.execute("CREATE INDEX " + indexName + " ON " + table + " (" + columns + ")");
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package mytunes;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// Inverted index over the title, artist, album, genre and comment of every library song. Text is
+// split into words, lower-cased and stripped of accents, so "beyonce" also finds the accented
+// spelling. A query matches the songs that have, for every query word, some word starting with it.
+// Each song gets a slot number in library order; the terms are kept sorted, so a prefix is a range
+// of the term map whose slot lists are OR-ed into a BitSet, and the query words' sets are AND-ed.
+// As a LibraryCache listener the index follows adds, removals and edits as they happen. Once most
+// slots belong to removed songs, the live ones are renumbered from 0 in the same order.
+public class SearchIndex implements LibraryCache.Listener {
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final int MIN_COMPACT_SLOTS = 1024; // removed slots below this are not worth renumbering
+
+    private final NavigableMap<String, SlotList> postings = new TreeMap<>();
+    private final ArrayList<Song> slots = new ArrayList<>();        // null once a song is removed
+    private final ArrayList<String[]> termsBySlot = new ArrayList<>();
+    private final Map<Song, Integer> slotBySong = new IdentityHashMap<>(); // Song.equals follows the path
+    private final BitSet live = new BitSet();
+    private int generation; // bumped whenever the slots are renumbered
+
+    // Sorted, growable list of slot numbers
+    private static class SlotList {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            int i = Arrays.binarySearch(slots, 0, size, slot);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(slots, i, slots, i + 1, size - i);
+            slots[i] = slot;
+            size++;
+        }
+
+        void remove(int slot) {
+            int i = Arrays.binarySearch(slots, 0, size, slot);
+            if (i >= 0) {
+                System.arraycopy(slots, i + 1, slots, i, size - i - 1);
+                size--;
+            }
+        }
+
+        void addTo(BitSet set) {
+            for (int i = 0; i < size; i++) {
+                set.set(slots[i]);
+            }
+        }
+    }
+
+    public SearchIndex(LibraryCache libraryCache) {
+        for (Song song : libraryCache.getSongs()) {
+            add(song);
+        }
+    }
+
+    // Songs matching the query, in library order; every song for an empty query
+    public synchronized List<Song> search(String query) {
+        BitSet matches = match(query);
+        List<Song> songs = new ArrayList<>(matches.cardinality());
+        for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+            songs.add(slots.get(slot));
+        }
+        return songs;
+    }
+
+    // Tests songs against the query as the index stands now; songs added later never match, unless
+    // the slots have been renumbered since, as the query is then matched again
+    public synchronized Predicate<Song> matcher(String query) {
+        if (tokenize(query).isEmpty()) {
+            return song -> true;
+        }
+        return new Predicate<Song>() {
+            private BitSet matches = match(query);
+            private int matchedGeneration = generation;
+
+            @Override
+            public boolean test(Song song) {
+                synchronized (SearchIndex.this) {
+                    if (matchedGeneration != generation) {
+                        matches = match(query);
+                        matchedGeneration = generation;
+                    }
+                    Integer slot = slotBySong.get(song);
+                    return slot != null && matches.get(slot);
+                }
+            }
+        };
+    }
+
+    private BitSet match(String query) {
+        BitSet result = null;
+        for (String word : tokenize(query)) {
+            BitSet wordMatches = new BitSet(slots.size());
+            // Every term from word up to (not including) the next string that doesn't start with it
+            for (SlotList list : postings.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                list.addTo(wordMatches);
+            }
+            if (result == null) {
+                result = wordMatches;
+            } else {
+                result.and(wordMatches);
+            }
+            if (result.isEmpty()) {
+                return result;
+            }
+        }
+        return result == null ? (BitSet) live.clone() : result;
+    }
+
+    public synchronized int size() {
+        return slotBySong.size();
+    }
+
+    private void add(Song song) {
+        if (slotBySong.containsKey(song)) {
+            return;
+        }
+        int slot = slots.size();
+        slots.add(song);
+        slotBySong.put(song, slot);
+        live.set(slot);
+        String[] terms = termsOf(song);
+        termsBySlot.add(terms);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new SlotList()).add(slot);
+        }
+    }
+
+    private void remove(Song song) {
+        Integer slot = slotBySong.remove(song);
+        if (slot == null) {
+            return;
+        }
+        removeTerms(slot);
+        slots.set(slot, null);
+        termsBySlot.set(slot, null);
+        live.clear(slot);
+    }
+
+    // Renumbers the live slots from 0, keeping their order, so removed songs stop taking up slots
+    private void compactIfSparse() {
+        int removed = slots.size() - slotBySong.size();
+        if (removed < MIN_COMPACT_SLOTS || removed < slotBySong.size()) {
+            return;
+        }
+        int[] newSlots = new int[slots.size()];
+        int next = 0;
+        for (int slot = 0; slot < slots.size(); slot++) {
+            Song song = slots.get(slot);
+            if (song != null) {
+                newSlots[slot] = next;
+                slots.set(next, song);
+                termsBySlot.set(next, termsBySlot.get(slot));
+                slotBySong.put(song, next);
+                next++;
+            }
+        }
+        slots.subList(next, slots.size()).clear();
+        slots.trimToSize();
+        termsBySlot.subList(next, termsBySlot.size()).clear();
+        termsBySlot.trimToSize();
+        // Only live slots are posted, and the renumbering keeps their order, so the lists stay sorted
+        for (SlotList list : postings.values()) {
+            for (int i = 0; i < list.size; i++) {
+                list.slots[i] = newSlots[list.slots[i]];
+            }
+        }
+        live.clear();
+        live.set(0, next);
+        generation++;
+    }
+
+    private void removeTerms(int slot) {
+        for (String term : termsBySlot.get(slot)) {
+            SlotList list = postings.get(term);
+            if (list != null) {
+                list.remove(slot);
+                if (list.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    private static String[] termsOf(Song song) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String field : new String[]{song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre(), song.getComment()}) {
+            terms.addAll(tokenize(field));
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    // Lower-case words without accents; the same rules apply to songs and queries
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return words;
+        }
+        if (!isAscii(text)) {
+            text = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    // Most tags are plain ASCII and need no Unicode normalization
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void songsAdded(List<Song> songs) {
+        for (Song song : songs) {
+            add(song);
+        }
+    }
+
+    @Override
+    public synchronized void songsRemoved(List<Song> songs) {
+        for (Song song : songs) {
+            remove(song);
+        }
+        compactIfSparse();
+    }
+
+    @Override
+    public synchronized void songUpdated(Song song) {
+        Integer slot = slotBySong.get(song);
+        if (slot == null) {
+            return;
+        }
+        removeTerms(slot);
+        String[] terms = termsOf(song);
+        termsBySlot.set(slot, terms);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new SlotList()).add(slot);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package mytunes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Picks the play order for shuffle. Songs come from a random permutation of the list's rows that is
+// computed one position at a time (see IndexPermutation), so no song comes up twice before the
+// whole list has been gone through, and a 500k-song library costs no more memory than a short
+// playlist. The weighted modes skip a song the permutation offers with a probability that depends on
+// its play statistics; a skipped song gets its chances again in the next pass. The songs played
+// are kept in a history that Previous walks back through and Next walks forward again. The next
+// song is drawn in advance, so the player can pre-decode it for gapless playback. Only used on
+// the EDT.
+public class Shuffler {
+    private static final int MAX_HISTORY = 1000;
+    private static final double MIN_WEIGHT = 0.02; // Every song stays possible
+    private static final double RECENCY_DAYS = 14; // A song played this long ago is about 2/3 as likely as a new one
+
+    public enum Mode {
+        EVEN,
+        MOST_PLAYED, // Favours the songs played most often
+        LEAST_RECENT // Favours the songs not played for a while
+    }
+
+    private final Random random = new Random();
+    private Mode mode = Mode.EVEN;
+    private Map<Integer, PlayHistoryRecorder.PlayEvent> playStats = new HashMap<>();
+    private int maxPlayCount;
+
+    private List<Song> songs; // The list the history and the permutation are for
+    private final List<Song> history = new ArrayList<>(); // Songs played, then at most the songs Next will play
+    private int current = -1; // Position in history of the playing song
+    private IndexPermutation permutation;
+    private int position; // Next position of the permutation to offer
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+        history.subList(current + 1, history.size()).clear(); // The song drawn in advance used the old weights
+    }
+
+    // The play count and last play of each song by id, as stored in the database
+    public void setPlayStats(Map<Integer, PlayHistoryRecorder.PlayEvent> playStats) {
+        this.playStats = playStats;
+        maxPlayCount = 0;
+        for (PlayHistoryRecorder.PlayEvent stats : playStats.values()) {
+            maxPlayCount = Math.max(maxPlayCount, stats.getCount());
+        }
+    }
+
+    // Records that the song at index started playing, whether it was picked by the shuffle or not
+    public void playing(List<Song> list, int index) {
+        useList(list);
+        Song song = list.get(index);
+        if (current + 1 < history.size() && history.get(current + 1) == song) {
+            current++;
+        } else if (current > 0 && history.get(current - 1) == song) {
+            current--;
+        } else if (current < 0 || history.get(current) != song) {
+            history.subList(current + 1, history.size()).clear();
+            history.add(song);
+            current++;
+            if (history.size() > MAX_HISTORY) {
+                history.remove(0);
+                current--;
+            }
+        }
+        countPlay(song);
+    }
+
+    // The row of the song Next will play, drawing it if it is not in the history yet; -1 if the list is empty
+    public int peekNext(List<Song> list) {
+        useList(list);
+        while (current + 1 < history.size()) {
+            int index = indexOf(history.get(current + 1));
+            if (index != -1) {
+                return index;
+            }
+            history.remove(current + 1); // No longer in the list
+        }
+        int index = draw();
+        if (index != -1) {
+            history.add(songs.get(index));
+        }
+        return index;
+    }
+
+    // The row of the song played before the current one, or -1 if there is none
+    public int peekPrevious(List<Song> list) {
+        useList(list);
+        while (current > 0) {
+            int index = indexOf(history.get(current - 1));
+            if (index != -1) {
+                return index;
+            }
+            history.remove(current - 1);
+            current--;
+        }
+        return -1;
+    }
+
+    // Another list starts a new history and a new permutation
+    private void useList(List<Song> list) {
+        if (list != songs) {
+            songs = list;
+            history.clear();
+            current = -1;
+            permutation = null;
+        }
+    }
+
+    private int draw() {
+        int count = songs.size();
+        if (count == 0) {
+            return -1;
+        }
+        Song playing = current >= 0 ? history.get(current) : null;
+        for (int offered = 0; ; offered++) {
+            if (permutation == null || permutation.size() != count || position == count) {
+                // A new pass; the list growing or shrinking also starts one, as rows have moved
+                permutation = new IndexPermutation(count, random.nextLong());
+                position = 0;
+            }
+            int index = permutation.indexAt(position++);
+            Song song = songs.get(index);
+            if (song == playing && count > 1) {
+                continue; // Never the same song twice in a row, even across passes
+            }
+            if (offered >= count || random.nextDouble() < weight(song)) {
+                return index; // After a whole pass of refusals, the next song is taken regardless
+            }
+        }
+    }
+
+    // Between MIN_WEIGHT and 1
+    private double weight(Song song) {
+        if (mode == Mode.EVEN) {
+            return 1;
+        }
+        PlayHistoryRecorder.PlayEvent stats = playStats.get(song.getId());
+        if (mode == Mode.MOST_PLAYED) {
+            int plays = stats != null ? stats.getCount() : 0;
+            return Math.max(MIN_WEIGHT, (1 + Math.log1p(plays)) / (1 + Math.log1p(maxPlayCount)));
+        }
+        if (stats == null) {
+            return 1; // Never played
+        }
+        double days = (double) (System.currentTimeMillis() - stats.getPlayedAt()) / TimeUnit.DAYS.toMillis(1);
+        return Math.max(MIN_WEIGHT, 1 - Math.exp(-days / RECENCY_DAYS));
+    }
+
+    // Keeps the weights current between reads of the database
+    private void countPlay(Song song) {
+        if (song.getId() <= 0) {
+            return;
+        }
+        PlayHistoryRecorder.PlayEvent play = new PlayHistoryRecorder.PlayEvent(song.getId(), System.currentTimeMillis(), 1);
+        PlayHistoryRecorder.PlayEvent stats = playStats.get(song.getId());
+        if (stats == null) {
+            playStats.put(song.getId(), play);
+            stats = play;
+        } else {
+            stats.merge(play);
+        }
+        maxPlayCount = Math.max(maxPlayCount, stats.getCount());
+    }
+
+    // By identity: playlists may hold equal copies of a song
+    private int indexOf(Song song) {
+        for (int i = 0; i < songs.size(); i++) {
+            if (songs.get(i) == song) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // A random permutation of [0, size) that maps a position to a row on demand: a four-round
+    // Feistel network over the smallest even number of bits that covers size, applied again to
+    // results that fall outside the range (cycle walking). As the domain is under 4 * size, that
+    // takes fewer than four applications on average. Only the key is stored.
+    static final class IndexPermutation {
+        private static final int ROUNDS = 4;
+
+        private final int size;
+        private final int halfBits;
+        private final long halfMask;
+        private final long key;
+
+        IndexPermutation(int size, long key) {
+            this.size = size;
+            int bits = Math.max(2, 32 - Integer.numberOfLeadingZeros(size - 1));
+            this.halfBits = (bits + 1) / 2;
+            this.halfMask = (1L << halfBits) - 1;
+            this.key = key;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int indexAt(int position) {
+            long value = position;
+            do {
+                value = encrypt(value);
+            } while (value >= size);
+            return (int) value;
+        }
+
+        private long encrypt(long value) {
+            long left = value >>> halfBits;
+            long right = value & halfMask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long next = left ^ (mix(right, round) & halfMask);
+                left = right;
+                right = next;
+            }
+            return left << halfBits | right;
+        }
+
+        // The round function: SplitMix64's finalizer over the half, the key and the round
+        private long mix(long half, int round) {
+            long z = half + key + (round + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -4,39 +4,48 @@ import java.io.File;
 import java.util.Objects;
 
 public class Song {
+    // The tags that repeat across songs are dictionary-encoded: each distinct value is kept once,
+    // and a song only holds its int code. Comments are free text, mostly unique to a song, and would
+    // only fill the dictionary, which never forgets a value.
+    private static final StringDictionary ARTISTS = new StringDictionary();
+    private static final StringDictionary ALBUMS = new StringDictionary();
+    private static final StringDictionary YEARS = new StringDictionary();
+    private static final StringDictionary GENRES = new StringDictionary();
+
     private int id;  // The song ID
     private String title;
-    private String artist;
-    private String album;
-    private String year;
-    private String genre;
+    private int artist;
+    private int album;
+    private int year;
+    private int genre;
     private String comment;
     private String filePath;
+    private int durationMs;  // 0 until the file's frame index has been built
+    private int bitrateKbps; // 0 if unknown
+    private int sampleRate;  // 0 if unknown
+    private long fileSize;     // bytes when the tags were last read; 0 if unknown
+    private long fileModified; // file modification time (epoch millis) when the tags were last read; 0 if unknown
+    private String audioHash;  // SHA-256 of the audio frames in hex (see Mp3FrameIndex); null if not computed
 
     public Song(int id, String title, String artist, String album, String year, String genre, String comment, String filePath) {
         this.id = id;
         this.title = title;
-        this.artist = artist;
-        this.album = album;
-        this.year = year;
-        this.genre = genre;
+        this.artist = ARTISTS.encode(artist);
+        this.album = ALBUMS.encode(album);
+        this.year = YEARS.encode(year);
+        this.genre = GENRES.encode(genre);
         this.comment = comment;
         this.filePath = filePath;
     }
 
-    // Method to create a Song object from a File
+    // Creates a Song with placeholder values for a file whose tags have not been read;
+    // MetadataExtractor fills in what the file's ID3 tags provide
     public static Song fromFile(File file) {
         String title = file.getName(); // Use file name as the title
         String filePath = file.getAbsolutePath();
-        
-        // Simulate extracting year from file name or metadata (you can update this logic)
-        String year = "2023";  // Example: use the current year as a placeholder
-        if (year.length() > 4) {
-            year = year.substring(0, 4); // Ensure the year is at most 4 characters
-        }
 
-        // Other fields can be initialized to default values or parsed from the file if available
-        return new Song(0, title, "Unknown Artist", "Unknown Album", year, "Unknown Genre", "No Comments", filePath);
+        // The year is left empty rather than guessed
+        return new Song(0, title, "Unknown Artist", "Unknown Album", "", "Unknown Genre", "No Comments", filePath);
     }
 
     // Getters and setters for the fields
@@ -57,39 +66,39 @@ public class Song {
     }
 
     public String getArtist() {
-        return artist;
+        return ARTISTS.decode(artist);
     }
 
     public void setArtist(String artist) {
-        this.artist = artist;
+        this.artist = ARTISTS.encode(artist);
     }
 
     public String getAlbum() {
-        return album;
+        return ALBUMS.decode(album);
     }
 
     public void setAlbum(String album) {
-        this.album = album;
+        this.album = ALBUMS.encode(album);
     }
 
     public String getYear() {
-        return year;
+        return YEARS.decode(year);
     }
 
     public void setYear(String year) {
         if (year.length() > 4) {
-            this.year = year.substring(0, 4); // Ensure the year is at most 4 characters
+            this.year = YEARS.encode(year.substring(0, 4)); // Ensure the year is at most 4 characters
         } else {
-            this.year = year;
+            this.year = YEARS.encode(year);
         }
     }
 
     public String getGenre() {
-        return genre;
+        return GENRES.decode(genre);
     }
 
     public void setGenre(String genre) {
-        this.genre = genre;
+        this.genre = GENRES.encode(genre);
     }
 
     public String getComment() {
@@ -108,6 +117,84 @@ public class Song {
         this.filePath = filePath;
     }
 
+    public int getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(int durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public void setBitrateKbps(int bitrateKbps) {
+        this.bitrateKbps = bitrateKbps;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public long getFileModified() {
+        return fileModified;
+    }
+
+    public void setFileModified(long fileModified) {
+        this.fileModified = fileModified;
+    }
+
+    public String getAudioHash() {
+        return audioHash;
+    }
+
+    public void setAudioHash(String audioHash) {
+        this.audioHash = audioHash;
+    }
+
+    // A detached copy at the given path, so a change can be written to the database before the
+    // library's own Song is touched
+    public Song copy(String filePath) {
+        Song copy = new Song(id, title, getArtist(), getAlbum(), getYear(), getGenre(), comment, filePath);
+        copy.copyFileDataFrom(this);
+        return copy;
+    }
+
+    // Takes the tags, the fields Database.updateSong writes, from another copy of the song
+    public void copyTagsFrom(Song other) {
+        title = other.title;
+        artist = other.artist;
+        album = other.album;
+        year = other.year;
+        genre = other.genre;
+        comment = other.comment;
+    }
+
+    // Takes everything read from the file (tags, audio properties, size and time) from a freshly
+    // extracted copy; the id and file path stay as they are
+    public void copyFileDataFrom(Song other) {
+        copyTagsFrom(other);
+        durationMs = other.durationMs;
+        bitrateKbps = other.bitrateKbps;
+        sampleRate = other.sampleRate;
+        fileSize = other.fileSize;
+        fileModified = other.fileModified;
+        audioHash = other.audioHash;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
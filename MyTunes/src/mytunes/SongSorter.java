@@ -0,0 +1,287 @@
+package mytunes;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+// Sorts the song list of a view by up to MAX_SORT_KEYS columns. The list itself is sorted, so the
+// table and playback follow the same order. Comparing strings with a Collator on every comparison
+// is far too slow for 100k songs, so each text column keeps the distinct values it has seen ranked
+// in collation order (see ValueRanks), built from CollationKeys once and extended as new values
+// turn up. A sort then looks up one int per song and key and sorts primitives. The year sorts as a
+// number, with songs without one last either way. Songs added to a sorted view are inserted at
+// their place with a binary search instead of re-sorting the view.
+public class SongSorter {
+    private static final int MAX_SORT_KEYS = 3;
+    private static final int NO_YEAR = -1;
+
+    public static class SortKey {
+        private final SongTableModel.Column column;
+        private final boolean ascending;
+
+        public SortKey(SongTableModel.Column column, boolean ascending) {
+            this.column = column;
+            this.ascending = ascending;
+        }
+
+        public SongTableModel.Column getColumn() {
+            return column;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+    }
+
+    private final Collator collator = Collator.getInstance();
+    private final List<SortKey> sortKeys = new ArrayList<>();
+    private final Map<SongTableModel.Column, ValueRanks> ranksByColumn = new EnumMap<>(SongTableModel.Column.class);
+
+    // Primary sort key first
+    public List<SortKey> getSortKeys() {
+        return Collections.unmodifiableList(sortKeys);
+    }
+
+    public boolean isSorted() {
+        return !sortKeys.isEmpty();
+    }
+
+    // As for a click on a column header: the column becomes the primary sort key, ascending, and
+    // the previous keys break ties. If it already was the primary key its direction is reversed.
+    public void toggle(SongTableModel.Column column) {
+        boolean ascending = true;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).column == column) {
+            ascending = !sortKeys.get(0).ascending;
+        }
+        sortKeys.removeIf(key -> key.column == column);
+        sortKeys.add(0, new SortKey(column, ascending));
+        if (sortKeys.size() > MAX_SORT_KEYS) {
+            sortKeys.remove(MAX_SORT_KEYS);
+        }
+    }
+
+    public void clear() {
+        sortKeys.clear();
+    }
+
+    // Sorts the list in place; equal songs keep their order. Each key, least significant first, is
+    // one pass that sorts (rank, position) pairs packed into longs, which keeps the pass stable.
+    public void sort(List<Song> songs) {
+        int count = songs.size();
+        if (sortKeys.isEmpty() || count < 2) {
+            return;
+        }
+        Song[] array = songs.toArray(new Song[0]);
+        addValues(songs);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int[] ranks = new int[count];
+        long[] packed = new long[count];
+        for (int k = sortKeys.size() - 1; k >= 0; k--) {
+            SortKey key = sortKeys.get(k);
+            for (int i = 0; i < count; i++) {
+                ranks[i] = rankOf(key, array[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                packed[i] = (long) ranks[order[i]] << 32 | i;
+            }
+            Arrays.sort(packed);
+            int[] sorted = new int[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = order[(int) packed[i]];
+            }
+            order = sorted;
+        }
+        for (int i = 0; i < count; i++) {
+            songs.set(i, array[order[i]]);
+        }
+    }
+
+    // Inserts songs into a list sorted by this sorter, each after any songs that compare equal to
+    // it. inserted receives each new song's row as it is inserted.
+    public void insert(List<Song> songs, Collection<Song> added, IntConsumer inserted) {
+        addValues(added);
+        for (Song song : added) {
+            int low = 0;
+            int high = songs.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareRanked(songs.get(mid), song) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            songs.add(low, song);
+            inserted.accept(low);
+        }
+    }
+
+    // Whether the song at row is still in order with its neighbours, e.g. after its tags changed
+    public boolean isInOrder(List<Song> songs, int row) {
+        Song song = songs.get(row);
+        addValues(Collections.singletonList(song));
+        return (row == 0 || compareRanked(songs.get(row - 1), song) <= 0)
+                && (row == songs.size() - 1 || compareRanked(song, songs.get(row + 1)) <= 0);
+    }
+
+    private int compareRanked(Song a, Song b) {
+        for (SortKey key : sortKeys) {
+            int result = Integer.compare(rankOf(key, a), rankOf(key, b));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    // A non-negative rank that already accounts for the key's direction
+    private int rankOf(SortKey key, Song song) {
+        int rank;
+        if (key.column == SongTableModel.Column.YEAR) {
+            rank = parseYear(song.getYear());
+            if (rank == NO_YEAR) {
+                return Integer.MAX_VALUE; // Last in both directions
+            }
+        } else {
+            rank = ranksByColumn.get(key.column).rankOf(valueOf(key.column, song));
+        }
+        return key.ascending ? rank : Integer.MAX_VALUE - 1 - rank;
+    }
+
+    // Ranks the sorted columns' values of songs that have not been seen yet
+    private void addValues(Collection<Song> songs) {
+        for (SortKey key : sortKeys) {
+            if (key.column == SongTableModel.Column.YEAR) {
+                continue;
+            }
+            ValueRanks ranks = ranksByColumn.computeIfAbsent(key.column, column -> new ValueRanks());
+            Set<String> newValues = new LinkedHashSet<>();
+            for (Song song : songs) {
+                String value = valueOf(key.column, song);
+                if (!ranks.contains(value)) {
+                    newValues.add(value);
+                }
+            }
+            if (!newValues.isEmpty()) {
+                ranks.add(newValues);
+            }
+        }
+    }
+
+    private static String valueOf(SongTableModel.Column column, Song song) {
+        String value = column.valueOf(song);
+        return value == null ? "" : value;
+    }
+
+    // The first run of digits, so "1999", "1999-05-01" and "(1999)" all sort as 1999
+    static int parseYear(String year) {
+        if (year == null) {
+            return NO_YEAR;
+        }
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < year.length(); i++) {
+            char c = year.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits < 9) { // Stays within an int
+                    value = value * 10 + (c - '0');
+                }
+                digits++;
+            } else if (digits > 0) {
+                break;
+            }
+        }
+        return digits == 0 ? NO_YEAR : value;
+    }
+
+    // The distinct values of one column in collation order, each with a rank. Ranks are spaced
+    // GAP apart, so a value added later usually gets a rank between its neighbours' and nothing
+    // else changes; only when there is no room left is everything renumbered.
+    private final class ValueRanks {
+        private static final int GAP = 1 << 12;
+        private static final int MAX_RANK = Integer.MAX_VALUE / 2;
+
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> rankByValue = new HashMap<>();
+
+        boolean contains(String value) {
+            return rankByValue.containsKey(value);
+        }
+
+        int rankOf(String value) {
+            return rankByValue.get(value);
+        }
+
+        void add(Collection<String> newValues) {
+            if (newValues.size() > values.size() / 8) {
+                rebuild(newValues);
+                return;
+            }
+            for (String value : newValues) {
+                int index = insertionPoint(value);
+                values.add(index, value);
+                int before = index == 0 ? -1 : rankByValue.get(values.get(index - 1));
+                int after = index == values.size() - 1 ? Math.min(before + 2 * GAP, MAX_RANK) : rankByValue.get(values.get(index + 1));
+                if (after - before < 2) {
+                    renumber();
+                } else {
+                    rankByValue.put(value, before + (after - before) / 2);
+                }
+            }
+        }
+
+        private int insertionPoint(String value) {
+            int low = 0;
+            int high = values.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (collator.compare(values.get(mid), value) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Sorts all values by their CollationKeys, which is much cheaper than comparing strings
+        // with the Collator when many values are new
+        private void rebuild(Collection<String> newValues) {
+            CollationKey[] keys = new CollationKey[values.size() + newValues.size()];
+            int i = 0;
+            for (String value : values) {
+                keys[i++] = collator.getCollationKey(value);
+            }
+            for (String value : newValues) {
+                keys[i++] = collator.getCollationKey(value);
+            }
+            Arrays.sort(keys);
+            values.clear();
+            for (CollationKey key : keys) {
+                values.add(key.getSourceString());
+            }
+            renumber();
+        }
+
+        private void renumber() {
+            int gap = (int) Math.max(1, Math.min(GAP, MAX_RANK / (values.size() + 1L)));
+            rankByValue.clear();
+            for (int i = 0; i < values.size(); i++) {
+                rankByValue.put(values.get(i), i * gap);
+            }
+        }
+    }
+}
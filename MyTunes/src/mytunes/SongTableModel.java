@@ -0,0 +1,129 @@
+package mytunes;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Table model over a list of songs. Nothing is copied into rows: the table reads each cell from its
+// Song as it paints, so showing a view costs the same for 50 songs or 80,000. The list belongs to
+// the caller, who calls the fire methods after changing it. The visible columns are mapped to song
+// fields once, in setColumns(), rather than for every cell.
+public class SongTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    public enum Column {
+        TITLE("Title"),
+        ARTIST("Artist"),
+        ALBUM("Album"),
+        YEAR("Year"),
+        GENRE("Genre"),
+        COMMENT("Comment");
+
+        private final String title;
+
+        Column(String title) {
+            this.title = title;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        String valueOf(Song song) {
+            switch (this) {
+                case TITLE:
+                    return song.getTitle();
+                case ARTIST:
+                    return song.getArtist();
+                case ALBUM:
+                    return song.getAlbum();
+                case YEAR:
+                    return song.getYear();
+                case GENRE:
+                    return song.getGenre();
+                default:
+                    return song.getComment();
+            }
+        }
+    }
+
+    private List<Song> songs = new ArrayList<>();
+    private Column[] columns = Column.values();
+    private Consumer<Song> commentEdited = song -> { };
+
+    // Shows the given list, which is read from directly from now on
+    public void setSongs(List<Song> songs) {
+        this.songs = songs;
+        fireTableDataChanged();
+    }
+
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    public Song getSongAt(int row) {
+        return songs.get(row);
+    }
+
+    public Column getColumn(int column) {
+        return columns[column];
+    }
+
+    public void setColumns(Collection<Column> visibleColumns) {
+        Column[] newColumns = visibleColumns.toArray(new Column[0]);
+        if (Arrays.equals(columns, newColumns)) {
+            return; // Keeps the column widths the user set
+        }
+        columns = newColumns;
+        fireTableStructureChanged();
+    }
+
+    // Called after the user edits a song's comment in the table
+    public void setCommentEditListener(Consumer<Song> commentEdited) {
+        this.commentEdited = commentEdited;
+    }
+
+    @Override
+    public int getRowCount() {
+        return songs.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column].getTitle();
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return columns[column].valueOf(songs.get(row));
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return columns[column] == Column.COMMENT; // Only the comment field is editable
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        if (columns[column] != Column.COMMENT) {
+            return;
+        }
+        Song song = songs.get(row);
+        song.setComment(value == null ? "" : value.toString());
+        fireTableCellUpdated(row, column);
+        commentEdited.accept(song);
+    }
+}
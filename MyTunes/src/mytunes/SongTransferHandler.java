@@ -3,14 +3,15 @@ package mytunes;
 import javax.swing.*;
 import java.awt.datatransfer.*;
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 
 public class SongTransferHandler extends TransferHandler {
-    private Database database;
+    private PlaylistRegistry playlists;
     private MyTunesFrame frame;
 
-    public SongTransferHandler(Database database, MyTunesFrame frame) {
-        this.database = database;
+    public SongTransferHandler(PlaylistRegistry playlists, MyTunesFrame frame) {
+        this.playlists = playlists;
         this.frame = frame;
     }
 
@@ -42,8 +43,7 @@ public class SongTransferHandler extends TransferHandler {
                 Song song = frame.getSongFromRow(selectedRow);
                 String selectedPlaylist = frame.getSelectedPlaylist();
                 if (selectedPlaylist != null) {
-                    database.addSongToPlaylist(song, selectedPlaylist);
-                    frame.refreshPlaylistWindow(selectedPlaylist);
+                    playlists.addSongs(selectedPlaylist, Collections.singletonList(song));
                 }
             }
             return true;
@@ -0,0 +1,43 @@
+package mytunes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dictionary encoding for a tag column: each distinct value is stored once and songs keep its int
+// code. Artists, albums, genres and years repeat across thousands of songs, and every
+// row the database returns is a fresh copy of them. Codes are never reused, so decoding needs no
+// lock; values that no song uses any more stay in the dictionary, which is fine for tags.
+final class StringDictionary {
+    static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private volatile String[] values = new String[256];
+    private int size;
+
+    synchronized int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current; // Published before the code can reach another thread
+        codes.put(value, size);
+        return size++;
+    }
+
+    String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
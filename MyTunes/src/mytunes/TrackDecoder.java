@@ -0,0 +1,168 @@
+package mytunes;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+
+import java.io.IOException;
+
+// Decodes one MP3 file frame by frame into 16-bit little-endian PCM. When the frame index carries
+// LAME encoder delay/padding, the leading and trailing silence is trimmed so consecutive tracks join
+// without a gap. The file stays open until close(); seek() repositions it using the frame index.
+// Frames are decoded into one PcmOutputBuffer reused for the whole track, so steady-state decoding
+// allocates nothing of its own.
+class TrackDecoder implements AutoCloseable {
+    private static final int DECODER_DELAY = 529; // samples added by the MP3 synthesis filterbank
+
+    private final String filePath;
+    private final AudioSource source;
+    private Mp3FrameIndex index;
+    private Bitstream bitstream;
+    private Decoder decoder = new Decoder();
+    private PcmOutputBuffer output;
+    private DecodeMetrics metrics;
+    private int pcmOffset;
+    private int sampleRate;
+    private int channels;
+    private long decodedSamples;   // per channel, counted from the first audio frame
+    private long validStart;       // first sample to output
+    private long validEnd;         // one past the last sample to output, or Long.MAX_VALUE
+
+    TrackDecoder(String filePath, Mp3FrameIndex index) throws IOException {
+        this.filePath = filePath;
+        this.source = AudioSource.open(filePath);
+        setIndex(index);
+        // With an index we start at the first audio frame, skipping ID3 tags and any Xing/Info frame
+        bitstream = openAt(index != null ? index.getFirstFrameOffset() : 0);
+    }
+
+    private void setIndex(Mp3FrameIndex index) {
+        this.index = index;
+        if (index != null && (index.getEncoderDelay() > 0 || index.getEncoderPadding() > 0)) {
+            validStart = index.getEncoderDelay() + DECODER_DELAY;
+            validEnd = (long) index.getFrameCount() * index.getSamplesPerFrame() - index.getEncoderPadding() + DECODER_DELAY;
+        } else {
+            validStart = 0;
+            validEnd = Long.MAX_VALUE;
+        }
+    }
+
+    private Bitstream openAt(long byteOffset) throws IOException {
+        // The previous Bitstream is dropped, not closed: closing it would close the shared source
+        source.seek(byteOffset);
+        return new Bitstream(source);
+    }
+
+    // Decodes the next frame. Returns the number of PCM bytes available from getPcm()/getPcmOffset(),
+    // 0 if the whole frame was trimmed, or -1 at the end of the track.
+    int decodeFrame() throws JavaLayerException {
+        if (decodedSamples >= validEnd) {
+            return -1;
+        }
+        DecodeMetrics metrics = this.metrics;
+        long startNanos = 0;
+        long startAllocated = 0;
+        if (metrics != null) {
+            startAllocated = DecodeMetrics.currentThreadAllocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        Header header = bitstream.readFrame();
+        if (header == null) {
+            return -1;
+        }
+        if (output == null) {
+            output = new PcmOutputBuffer(header.mode() == Header.SINGLE_CHANNEL ? 1 : 2);
+            decoder.setOutputBuffer(output);
+        }
+        decoder.decodeFrame(header, bitstream);
+        bitstream.closeFrame();
+
+        sampleRate = header.frequency();
+        channels = output.getChannels();
+        int length = output.getLength();
+
+        if (metrics != null) {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = startAllocated < 0 ? -1 : DecodeMetrics.currentThreadAllocatedBytes() - startAllocated;
+            metrics.frameDecoded(nanos, allocated);
+        }
+
+        // Keep only the part of this frame inside [validStart, validEnd)
+        int bytesPerSample = channels * 2;
+        long frameSamples = length / bytesPerSample;
+        long first = Math.max(validStart, decodedSamples);
+        long last = Math.min(validEnd, decodedSamples + frameSamples);
+        pcmOffset = (int) (first - decodedSamples) * bytesPerSample;
+        decodedSamples += frameSamples;
+        return last > first ? (int) (last - first) * bytesPerSample : 0;
+    }
+
+    // Valid until the next decodeFrame() call
+    byte[] getPcm() {
+        return output.getBytes();
+    }
+
+    int getPcmOffset() {
+        return pcmOffset;
+    }
+
+    // Repositions at the frame containing millis, skipping at most SEEK_INTERVAL frames without decoding
+    void seek(long millis) throws IOException, JavaLayerException {
+        if (index == null) {
+            setIndex(Mp3FrameIndex.build(filePath)); // Header-only scan
+        }
+        Mp3FrameIndex.SeekPoint seekPoint = index.seekPoint(millis);
+        bitstream = openAt(seekPoint.getByteOffset());
+        int frame = seekPoint.getFrame();
+        int target = index.frameAt(millis);
+        while (frame < target && bitstream.readFrame() != null) {
+            bitstream.closeFrame();
+            frame++;
+        }
+        decoder = new Decoder(); // Drop bit reservoir state from the old position
+        if (output != null) {
+            decoder.setOutputBuffer(output);
+        }
+        decodedSamples = (long) frame * index.getSamplesPerFrame();
+    }
+
+    // An index that arrives after decoding started is only used for seeking, not trimming
+    void setFrameIndex(Mp3FrameIndex index) {
+        if (this.index == null) {
+            this.index = index;
+        }
+    }
+
+    void setDecodeMetrics(DecodeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Position of the next sample to be decoded
+    long getPositionMs() {
+        int rate = sampleRate > 0 ? sampleRate : (index != null ? index.getSampleRate() : 44100);
+        return Math.max(0, decodedSamples - validStart) * 1000 / rate;
+    }
+
+    String getFilePath() {
+        return filePath;
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public void close() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
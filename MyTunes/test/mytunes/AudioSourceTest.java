@@ -0,0 +1,86 @@
+package mytunes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioSourceTest {
+    private static final int FILE_BYTES = 64 * 1024;
+    private static final int TRUNCATED_BYTES = 10_000;
+    private static final AudioSource.Config BUFFERED = new AudioSource.Config()
+            .setMode(AudioSource.Mode.BUFFERED)
+            .setReadAheadBytes(4096);
+
+    private File file;
+
+    @Before
+    public void writeFile() throws IOException {
+        file = File.createTempFile("source", ".bin");
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < FILE_BYTES; i++) {
+                out.write(i);
+            }
+        }
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void bufferedReadsEndWhereATruncatedFileEnds() throws IOException {
+        try (AudioSource source = AudioSource.open(file.getPath(), BUFFERED)) {
+            truncate();
+            byte[] b = new byte[3000];
+            long total = 0;
+            int n;
+            while ((n = source.read(b, 0, b.length)) >= 0) {
+                assertTrue(n > 0);
+                total += n;
+            }
+            assertEquals(TRUNCATED_BYTES, total);
+            assertEquals(-1, source.read());
+        }
+    }
+
+    @Test
+    public void bufferedByteReadsEndWhereATruncatedFileEnds() throws IOException {
+        try (AudioSource source = AudioSource.open(file.getPath(), BUFFERED)) {
+            truncate();
+            long total = 0;
+            int value;
+            while ((value = source.read()) >= 0) {
+                assertEquals(total % 256, value);
+                total++;
+            }
+            assertEquals(TRUNCATED_BYTES, total);
+        }
+    }
+
+    @Test
+    public void markAndResetReturnToTheMarkedByte() throws IOException {
+        try (AudioSource source = AudioSource.open(file.getPath(), BUFFERED)) {
+            source.skip(5000);
+            source.mark(0);
+            source.read(new byte[20_000], 0, 20_000);
+            source.reset();
+            assertEquals(5000 % 256, source.read());
+        }
+    }
+
+    private void truncate() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(TRUNCATED_BYTES);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package mytunes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Runs the pool against an in-memory H2 database, so it needs no MySQL server
+public class ConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1";
+
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool(URL, "sa", "", new ConnectionPool.Config().setMaxSize(2).setBorrowTimeoutMillis(200));
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE Songs (id INT PRIMARY KEY, title VARCHAR(255))");
+            stmt.execute("INSERT INTO Songs VALUES (1, 'One'), (2, 'Two')");
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE Songs");
+        }
+        pool.close();
+    }
+
+    @Test
+    public void returnedConnectionIsReused() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            try (Connection conn = pool.getConnection()) {
+                assertFalse(conn.isClosed());
+            }
+        }
+        assertEquals(1, pool.getTotalConnections());
+        assertEquals(0, pool.getActiveConnections());
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    @Test
+    public void closedConnectionCannotBeUsed() throws SQLException {
+        Connection conn = pool.getConnection();
+        conn.close();
+        assertTrue(conn.isClosed());
+        try {
+            conn.createStatement();
+            fail("A connection returned to the pool must not be usable");
+        } catch (SQLException expected) {
+            // the pool refuses it
+        }
+    }
+
+    @Test
+    public void borrowTimesOutWhenPoolIsExhausted() throws SQLException {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertFalse(first.isClosed() || second.isClosed());
+            long start = System.nanoTime();
+            try {
+                pool.getConnection();
+                fail("Expected a timeout with every connection borrowed");
+            } catch (SQLException expected) {
+                assertTrue((System.nanoTime() - start) / 1_000_000 >= 150);
+            }
+        }
+        assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    public void preparedStatementsAreServedFromTheCache() throws SQLException {
+        String sql = "SELECT title FROM Songs WHERE id = ?";
+        for (int i = 0; i < 3; i++) {
+            try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, 1);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals("One", rs.getString(1));
+                }
+            }
+        }
+        assertEquals(1, pool.getStatementCacheMisses());
+        assertEquals(2, pool.getStatementCacheHits());
+    }
+
+    @Test
+    public void closingStatementClosesResultSetLeftOpen() throws SQLException {
+        ResultSet leftOpen;
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement pstmt = conn.prepareStatement("SELECT title FROM Songs ORDER BY id");
+            leftOpen = pstmt.executeQuery();
+            assertTrue(leftOpen.next());
+            pstmt.close();
+            assertTrue(leftOpen.isClosed());
+        }
+        // The cached statement itself still works
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT title FROM Songs ORDER BY id");
+             ResultSet rs = pstmt.executeQuery()) {
+            assertTrue(rs.next());
+        }
+    }
+
+    @Test
+    public void uncommittedWorkIsRolledBackOnReturn() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.executeUpdate("INSERT INTO Songs VALUES (3, 'Three')");
+        }
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Songs")) {
+            assertTrue(conn.getAutoCommit());
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+        }
+    }
+}
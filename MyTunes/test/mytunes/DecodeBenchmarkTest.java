@@ -0,0 +1,182 @@
+package mytunes;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+import javazoom.jl.player.NullAudioDevice;
+import javazoom.jl.player.advanced.AdvancedPlayer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Compares the cost per frame of TrackDecoder's decode loop with JLayer's SampleBuffer path (the loop
+// TrackDecoder used before PcmOutputBuffer) and with AdvancedPlayer writing to a NullAudioDevice. Each
+// path decodes the file a few times and the fastest round is reported, after a warm-up round for the
+// JIT. The file is silent (see SilentMp3), which decodes faster than music, so compare the paths with
+// each other rather than with real playback. -Dmytunes.bench.frames sets the length.
+public class DecodeBenchmarkTest {
+    private static final int FRAMES = Integer.getInteger("mytunes.bench.frames", 2000);
+    private static final int ROUNDS = 5;
+    private static final double MAX_STEADY_BYTES_PER_FRAME = 16; // Stray allocations outside the loop, not per frame
+
+    private static File mp3;
+
+    @BeforeClass
+    public static void writeMp3() throws IOException {
+        mp3 = SilentMp3.create("decode", FRAMES);
+    }
+
+    @AfterClass
+    public static void deleteMp3() {
+        mp3.delete();
+    }
+
+    // The cost of one round: decode time and bytes allocated by this thread, per frame
+    private static class Round {
+        final double micros;
+        final double bytes;
+
+        Round(long nanos, long allocated, int frames) {
+            micros = nanos / 1000.0 / frames;
+            bytes = allocated < 0 ? Double.NaN : (double) allocated / frames;
+        }
+    }
+
+    private interface Path {
+        int decodeFile() throws Exception; // Returns the number of frames decoded
+    }
+
+    @Test
+    public void trackDecoderAllocatesNothingPerFrame() throws Exception {
+        Round trackDecoder = best(this::decodeWithTrackDecoder);
+        Round sampleBuffer = best(this::decodeWithSampleBuffer);
+        Round advancedPlayer = best(this::decodeWithAdvancedPlayer);
+        System.out.printf("%d frames, best of %d rounds%n", FRAMES, ROUNDS);
+        print("TrackDecoder", trackDecoder);
+        print("SampleBuffer loop", sampleBuffer);
+        print("AdvancedPlayer", advancedPlayer);
+
+        // Steady state, without the first frame's one-off Layer III tables
+        DecodeMetrics.Summary metrics = new DecodeMetrics.Summary();
+        try (TrackDecoder decoder = new TrackDecoder(mp3.getPath(), null)) {
+            decoder.decodeFrame();
+            decoder.setDecodeMetrics(metrics);
+            while (decoder.decodeFrame() >= 0) {
+                // Metrics record each frame
+            }
+        }
+        System.out.println("TrackDecoder metrics: " + metrics);
+        assertEquals(FRAMES - 1, metrics.getFrames());
+        if (DecodeMetrics.currentThreadAllocatedBytes() >= 0) {
+            assertTrue(metrics.getAllocatedBytesPerFrame() + " B/frame", metrics.getAllocatedBytesPerFrame() <= MAX_STEADY_BYTES_PER_FRAME);
+        }
+    }
+
+    @Test
+    public void trackDecoderMatchesSampleBufferOutput() throws Exception {
+        try (TrackDecoder trackDecoder = new TrackDecoder(mp3.getPath(), null);
+             InputStream in = new BufferedInputStream(new FileInputStream(mp3))) {
+            Bitstream bitstream = new Bitstream(in);
+            Decoder decoder = new Decoder();
+            int frames = 0;
+            int length;
+            while ((length = trackDecoder.decodeFrame()) >= 0) {
+                Header header = bitstream.readFrame();
+                SampleBuffer samples = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                bitstream.closeFrame();
+                byte[] expected = toPcm(samples);
+                byte[] actual = new byte[length];
+                System.arraycopy(trackDecoder.getPcm(), trackDecoder.getPcmOffset(), actual, 0, length);
+                assertArrayEquals("frame " + frames, expected, actual);
+                frames++;
+            }
+            assertEquals(FRAMES, frames);
+        }
+    }
+
+    private int decodeWithTrackDecoder() throws IOException, JavaLayerException {
+        int frames = 0;
+        try (TrackDecoder decoder = new TrackDecoder(mp3.getPath(), null)) {
+            while (decoder.decodeFrame() >= 0) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    private int decodeWithSampleBuffer() throws IOException, JavaLayerException {
+        int frames = 0;
+        byte[] pcm = new byte[0];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mp3))) {
+            Bitstream bitstream = new Bitstream(in);
+            Decoder decoder = new Decoder();
+            Header header;
+            while ((header = bitstream.readFrame()) != null) {
+                SampleBuffer samples = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                bitstream.closeFrame();
+                int length = samples.getBufferLength();
+                if (pcm.length < length * 2) {
+                    pcm = new byte[length * 2];
+                }
+                short[] buffer = samples.getBuffer();
+                for (int i = 0, j = 0; i < length; i++) {
+                    pcm[j++] = (byte) buffer[i];
+                    pcm[j++] = (byte) (buffer[i] >> 8);
+                }
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    private int decodeWithAdvancedPlayer() throws IOException, JavaLayerException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mp3))) {
+            new AdvancedPlayer(in, new NullAudioDevice()).play();
+        }
+        return FRAMES;
+    }
+
+    private static byte[] toPcm(SampleBuffer samples) {
+        short[] buffer = samples.getBuffer();
+        byte[] pcm = new byte[samples.getBufferLength() * 2];
+        for (int i = 0, j = 0; i < samples.getBufferLength(); i++) {
+            pcm[j++] = (byte) buffer[i];
+            pcm[j++] = (byte) (buffer[i] >> 8);
+        }
+        return pcm;
+    }
+
+    private static Round best(Path path) throws Exception {
+        path.decodeFile(); // Warm-up
+        Round best = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            long startAllocated = DecodeMetrics.currentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            int frames = path.decodeFile();
+            long nanos = System.nanoTime() - start;
+            long allocated = startAllocated < 0 ? -1 : DecodeMetrics.currentThreadAllocatedBytes() - startAllocated;
+            assertEquals(FRAMES, frames);
+            Round round = new Round(nanos, allocated, frames);
+            if (best == null || round.micros < best.micros) {
+                best = round;
+            }
+        }
+        return best;
+    }
+
+    private static void print(String name, Round round) {
+        System.out.printf("%-18s %7.1f us/frame %10.1f B/frame%n", name, round.micros, round.bytes);
+    }
+}
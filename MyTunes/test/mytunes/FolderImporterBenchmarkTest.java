@@ -0,0 +1,166 @@
+package mytunes;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Imports a folder tree of tiny MP3s through FolderImporter into a LibraryCache whose database only
+// hands out ids, so what is timed is the walk, the tag parsing and the batching rather than MySQL.
+// Checks that every file is imported once, in batches of at most 500, and that a cancelled import
+// stops early. -Dmytunes.bench.importFiles sets the tree size (default 5000; 200000 for the request's
+// tree, which needs about 170 MB of disk).
+public class FolderImporterBenchmarkTest {
+    private static final int FILES = Integer.getInteger("mytunes.bench.importFiles", 5000);
+    private static final int FILES_PER_ALBUM = 20;
+    private static final int ALBUMS_PER_ARTIST = 10;
+    private static final int MAX_BATCH = 500;
+
+    private static File tree;
+    private static final List<File> files = new ArrayList<>();
+
+    private final List<Integer> insertBatches = Collections.synchronizedList(new ArrayList<>());
+    private LibraryCache libraryCache;
+
+    @BeforeClass
+    public static void writeTree() throws IOException {
+        tree = Files.createTempDirectory("import").toFile();
+        byte[] frame = SilentMp3.frame();
+        for (int i = 0; i < FILES; i++) {
+            int album = i / FILES_PER_ALBUM;
+            File folder = new File(tree, "Artist " + album / ALBUMS_PER_ARTIST + File.separator + "Album " + album);
+            folder.mkdirs();
+            File file = new File(folder, i + ".mp3");
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(frame);
+                out.write(frame);
+            }
+            files.add(file);
+        }
+        new File(tree, "cover.jpg").createNewFile(); // Not an MP3, so not imported
+    }
+
+    @AfterClass
+    public static void deleteTree() throws IOException {
+        try (Stream<Path> paths = Files.walk(tree.toPath())) {
+            paths.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Before
+    public void createLibrary() {
+        AtomicInteger nextId = new AtomicInteger();
+        Database database = new Database(new ConnectionPool("jdbc:none:benchmark", "", "")) {
+            @Override
+            public void createTables() {
+            }
+
+            @Override
+            public void forEachSong(Consumer<Song> action) {
+            }
+
+            @Override
+            public List<Integer> addSongs(Collection<Song> songs) {
+                insertBatches.add(songs.size());
+                List<Integer> ids = new ArrayList<>(songs.size());
+                for (Song song : songs) {
+                    song.setId(nextId.incrementAndGet());
+                    ids.add(song.getId());
+                }
+                return ids;
+            }
+        };
+        libraryCache = new LibraryCache(database);
+    }
+
+    @Test
+    public void importsEveryFileOnceInBoundedBatches() throws InterruptedException {
+        System.gc();
+        long heapBefore = usedHeap();
+        AtomicInteger reported = new AtomicInteger();
+        FolderImporter.Progress progress;
+        try (MetadataExtractor extractor = new MetadataExtractor()) {
+            FolderImporter importer = new FolderImporter(libraryCache, extractor);
+            // The tree twice over: an album folder inside it and one of its files are already covered
+            List<File> roots = Arrays.asList(tree, files.get(0).getParentFile(), files.get(1));
+            progress = importer.importFiles(roots, listener(reported, null));
+        }
+        System.gc();
+        System.out.printf("%,d files: %s, %,d KB heap retained with the library%n",
+                FILES, progress, (usedHeap() - heapBefore) / 1024);
+
+        assertTrue(progress.isFinished());
+        assertFalse(progress.isCancelled());
+        assertEquals(FILES, progress.getSongsAdded());
+        assertEquals(FILES, libraryCache.size());
+        // Files reached twice are walked and reported twice, but added once
+        assertEquals(FILES + FILES_PER_ALBUM + 1, progress.getFilesProcessed());
+        assertEquals(progress.getFilesProcessed(), reported.get());
+        for (File file : files) {
+            assertTrue(file.getPath(), libraryCache.contains(file.getAbsolutePath()));
+        }
+        for (int batch : insertBatches) {
+            assertTrue(batch + " songs in one insert", batch <= MAX_BATCH);
+        }
+
+        // A second import finds everything already in the library
+        try (MetadataExtractor extractor = new MetadataExtractor()) {
+            progress = new FolderImporter(libraryCache, extractor).importFiles(Collections.singletonList(tree), listener(new AtomicInteger(), null));
+        }
+        assertEquals(0, progress.getSongsAdded());
+        assertEquals(FILES, libraryCache.size());
+    }
+
+    @Test
+    public void cancellingStopsAfterTheBatchInProgress() throws InterruptedException {
+        FolderImporter.Progress progress;
+        try (MetadataExtractor extractor = new MetadataExtractor()) {
+            FolderImporter importer = new FolderImporter(libraryCache, extractor);
+            progress = importer.importFiles(Collections.singletonList(tree), listener(new AtomicInteger(), importer));
+        }
+        assertTrue(progress.isCancelled());
+        assertTrue(progress.getFilesProcessed() <= MAX_BATCH);
+        assertEquals(progress.getSongsAdded(), libraryCache.size());
+    }
+
+    // Counts the songs reported per batch; cancels the import after its first batch if given one
+    private static FolderImporter.Listener listener(AtomicInteger reported, FolderImporter cancelAfterFirstBatch) {
+        return new FolderImporter.Listener() {
+            @Override
+            public void batchImported(List<Song> songs) {
+                reported.addAndGet(songs.size());
+                if (cancelAfterFirstBatch != null) {
+                    cancelAfterFirstBatch.cancel();
+                }
+            }
+
+            @Override
+            public void progress(FolderImporter.Progress progress) {
+            }
+        };
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,119 @@
+package mytunes;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// Scan throughput of Mp3FrameIndex.build over a corpus of MP3 files, through each way of reading them:
+// a BufferedInputStream over a FileInputStream (the scanner's input before AudioSource), a mapped
+// AudioSource, and the block-buffered FileChannel that openForScan uses. The last pass also hashes the
+// audio, which reads every byte instead of only the frame headers. The corpus is written just before
+// the passes, so they read from the page cache; drop the cache between passes to time the disk.
+// -Dmytunes.bench.scanMegabytes sets the corpus size (default 64; 10240 for the 10 GB corpus).
+public class FrameScanBenchmarkTest {
+    private static final long CORPUS_BYTES = Long.getLong("mytunes.bench.scanMegabytes", 64) * 1024 * 1024;
+    private static final int FRAMES_PER_FILE = 10_000; // about 4 MB and 4 minutes
+
+    private static File corpus;
+    private static List<File> files = new ArrayList<>();
+    private static long totalBytes;
+
+    @BeforeClass
+    public static void writeCorpus() throws IOException {
+        corpus = Files.createTempDirectory("scan").toFile();
+        byte[] frame = SilentMp3.frame();
+        long fileBytes = (long) frame.length * FRAMES_PER_FILE;
+        for (int i = 0; totalBytes < CORPUS_BYTES; i++) {
+            File file = new File(corpus, i + ".mp3");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+                for (int f = 0; f < FRAMES_PER_FILE; f++) {
+                    out.write(frame);
+                }
+            }
+            files.add(file);
+            totalBytes += fileBytes;
+        }
+    }
+
+    @AfterClass
+    public static void deleteCorpus() {
+        for (File file : files) {
+            file.delete();
+        }
+        corpus.delete();
+    }
+
+    private interface Scan {
+        Mp3FrameIndex index(File file) throws IOException;
+    }
+
+    @Test
+    public void everyReaderBuildsTheSameIndexes() throws IOException {
+        System.out.printf("%d files, %.0f MB%n", files.size(), totalBytes / 1048576.0);
+        for (int i = 0; i < 3; i++) { // So the first pass isn't charged for compiling the scanner
+            scanStream(files.get(0));
+            scanSource(files.get(0), AudioSource.Mode.BUFFERED);
+        }
+        byte[][] expected = time("FileInputStream", this::scanStream);
+        assertScansEqual(expected, time("AudioSource MAPPED", file -> scanSource(file, AudioSource.Mode.MAPPED)));
+        assertScansEqual(expected, time("AudioSource BUFFERED", file -> scanSource(file, AudioSource.Mode.BUFFERED)));
+        assertScansEqual(expected, time("openForScan + hash", this::scanAndHash));
+    }
+
+    private Mp3FrameIndex scanStream(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return Mp3FrameIndex.build(in, file.length());
+        }
+    }
+
+    private Mp3FrameIndex scanSource(File file, AudioSource.Mode mode) throws IOException {
+        AudioSource.Config config = new AudioSource.Config().setMode(mode);
+        try (AudioSource in = AudioSource.open(file.getPath(), config)) {
+            return Mp3FrameIndex.build(in, in.length());
+        }
+    }
+
+    private Mp3FrameIndex scanAndHash(File file) throws IOException {
+        try {
+            return Mp3FrameIndex.build(file.getPath(), MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private byte[][] time(String name, Scan scan) throws IOException {
+        byte[][] indexes = new byte[files.size()][];
+        long start = System.nanoTime();
+        for (int i = 0; i < files.size(); i++) {
+            Mp3FrameIndex index = scan.index(files.get(i));
+            assertEquals(FRAMES_PER_FILE, index.getFrameCount());
+            indexes[i] = index.toBytes();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-22s %8.1f MB/s %8.1f files/s%n", name, totalBytes / 1048576.0 / seconds, files.size() / seconds);
+        return indexes;
+    }
+
+    private static void assertScansEqual(byte[][] expected, byte[][] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(files.get(i).getName(), expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package mytunes;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Sends a long random run of commands to a few players and checks that closing them leaves no worker
+// threads or audio lines behind. The MP3 is silent (see SilentMp3), and the lines are stand-ins that
+// take audio at about ten times real time, so no sound card is needed.
+public class MP3PlayerStressTest {
+    private static final int COMMANDS = 10_000;
+    private static final int PLAYERS = 4;
+    private static final int FRAMES = 400; // about 10 s
+    private static final long SETTLE_MILLIS = 5000;
+
+    private static File mp3;
+    private static Mp3FrameIndex frameIndex;
+
+    private final AtomicInteger openLines = new AtomicInteger();
+
+    @BeforeClass
+    public static void writeSilentMp3() throws IOException {
+        mp3 = SilentMp3.create("stress", FRAMES);
+        frameIndex = Mp3FrameIndex.build(mp3.getPath());
+    }
+
+    @AfterClass
+    public static void deleteMp3() {
+        mp3.delete();
+    }
+
+    @Test
+    public void randomCommandsLeaveNoThreadsOrLinesOpen() throws InterruptedException {
+        assertEquals(FRAMES, frameIndex.getFrameCount());
+        int baselineThreads = countThreads();
+        AudioOutput output = new AudioOutput(this::openFakeLine);
+
+        MP3Player[] players = new MP3Player[PLAYERS];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new MP3Player(output);
+        }
+        assertEquals(baselineThreads + PLAYERS, countThreads());
+
+        Random random = new Random(42);
+        for (int i = 0; i < COMMANDS; i++) {
+            MP3Player player = players[random.nextInt(players.length)];
+            switch (random.nextInt(5)) {
+                case 0:
+                    player.play(mp3.getPath(), random.nextBoolean() ? frameIndex : null);
+                    break;
+                case 1:
+                    player.pause();
+                    break;
+                case 2:
+                    player.unpause();
+                    break;
+                case 3:
+                    player.seek(random.nextInt(frameIndex.getDurationMs() + 1000));
+                    break;
+                default:
+                    player.stop();
+                    break;
+            }
+            if (i % 50 == 0) {
+                Thread.sleep(1); // Lets the workers decode between bursts of commands
+            }
+            // Every player uses the same format, so they share one line
+            assertTrue(openLines.get() <= 1);
+        }
+        assertEquals(1, output.getOpenLineCount());
+
+        for (MP3Player player : players) {
+            player.close();
+            assertEquals(MP3Player.State.CLOSED, player.getState());
+        }
+        output.close();
+        assertEquals(baselineThreads, awaitThreadCount(baselineThreads));
+        assertEquals(0, output.getOpenLineCount());
+        assertEquals(0, openLines.get());
+    }
+
+    // A line that accepts everything written to it, taking about a tenth of the audio's duration
+    private SourceDataLine openFakeLine(AudioFormat format, int bufferBytes) {
+        openLines.incrementAndGet();
+        float bytesPerMilli = format.getFrameSize() * format.getFrameRate() / 1000f;
+        return (SourceDataLine) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {SourceDataLine.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "write":
+                            Thread.sleep((long) ((int) args[2] / bytesPerMilli / 10));
+                            return args[2];
+                        case "getBufferSize":
+                        case "available":
+                            return bufferBytes;
+                        case "getFormat":
+                            return format;
+                        case "close":
+                            openLines.decrementAndGet();
+                            return null;
+                        default:
+                            Class<?> type = method.getReturnType();
+                            if (type == boolean.class) {
+                                return false;
+                            }
+                            if (type == int.class) {
+                                return 0;
+                            }
+                            if (type == long.class) {
+                                return 0L;
+                            }
+                            if (type == float.class) {
+                                return 0f;
+                            }
+                            return null;
+                    }
+                });
+    }
+
+    // The players' worker threads and the audio output's writer threads
+    private static int countThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && (thread.getName().startsWith("MP3Player-") || thread.getName().startsWith("AudioOutput-"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Writer threads end on their own once their line is closed
+    private static int awaitThreadCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        int count = countThreads();
+        while (count != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            count = countThreads();
+        }
+        return count;
+    }
+}
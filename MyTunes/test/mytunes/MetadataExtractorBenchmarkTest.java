@@ -0,0 +1,114 @@
+package mytunes;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+// How MetadataExtractor.extractAll scales with its worker count over a library of small tagged MP3s.
+// Each file is a second of silence (see SilentMp3) with an ID3v1 tag; extraction reads the tags and
+// walks the frame headers, so the per-file cost is mostly opening and seeking, as with real files.
+// Every worker count must give the same songs as one worker. -Dmytunes.bench.files sets the number
+// of files (default 2000; 10000 for the request's library).
+public class MetadataExtractorBenchmarkTest {
+    private static final int FILES = Integer.getInteger("mytunes.bench.files", 2000);
+    private static final int FRAMES_PER_FILE = 40; // just over 1 s
+
+    private static File library;
+    private static final List<File> files = new ArrayList<>();
+
+    @BeforeClass
+    public static void writeLibrary() throws IOException {
+        library = Files.createTempDirectory("extract").toFile();
+        byte[] frame = SilentMp3.frame();
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(library, i + ".mp3");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                for (int f = 0; f < FRAMES_PER_FILE; f++) {
+                    out.write(frame);
+                }
+                out.write(id3v1Tag("Title " + i, "Artist " + i % 100, "Album " + i % 300, String.valueOf(1970 + i % 50)));
+            }
+            files.add(file);
+        }
+    }
+
+    @AfterClass
+    public static void deleteLibrary() {
+        for (File file : files) {
+            file.delete();
+        }
+        library.delete();
+    }
+
+    @Test
+    public void moreWorkersExtractTheSameSongs() throws InterruptedException {
+        try (MetadataExtractor warmUp = new MetadataExtractor(1)) {
+            warmUp.extractAll(files.subList(0, Math.min(200, FILES)));
+        }
+
+        TreeSet<Integer> workerCounts = new TreeSet<>(List.of(1, 2, 4, Runtime.getRuntime().availableProcessors()));
+        List<String> expected = null;
+        double singleSeconds = 0;
+        System.out.printf("%d files, %d cores%n", FILES, Runtime.getRuntime().availableProcessors());
+        for (int workers : workerCounts) {
+            try (MetadataExtractor extractor = new MetadataExtractor(workers)) {
+                long start = System.nanoTime();
+                List<Song> songs = extractor.extractAll(files);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (workers == 1) {
+                    singleSeconds = seconds;
+                }
+                System.out.printf("%2d workers %8.0f files/s  %4.2fx  %s%n", workers, FILES / seconds, singleSeconds / seconds, extractor.getStats());
+
+                List<String> described = describe(songs);
+                if (expected == null) {
+                    expected = described;
+                    assertEquals("Title 7|Artist 7|Album 7|1977|1", expected.get(7).substring(0, expected.get(7).lastIndexOf('|')));
+                } else {
+                    assertEquals(expected, described);
+                }
+                assertEquals(0, extractor.getStats().getFailures());
+            }
+        }
+    }
+
+    // The fields extraction fills in, one line per song in input order
+    private static List<String> describe(List<Song> songs) {
+        List<String> described = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            described.add(song.getTitle() + "|" + song.getArtist() + "|" + song.getAlbum() + "|" + song.getYear()
+                    + "|" + song.getDurationMs() / 1000 + "|" + song.getFilePath());
+        }
+        return described;
+    }
+
+    // A 128-byte ID3v1 tag: "TAG", then title, artist, album (30 bytes each), year (4), comment (30), genre
+    private static byte[] id3v1Tag(String title, String artist, String album, String year) {
+        byte[] tag = new byte[128];
+        put(tag, 0, "TAG", 3);
+        put(tag, 3, title, 30);
+        put(tag, 33, artist, 30);
+        put(tag, 63, album, 30);
+        put(tag, 93, year, 4);
+        tag[127] = (byte) 255; // No genre
+        return tag;
+    }
+
+    private static void put(byte[] tag, int offset, String value, int length) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(bytes, 0, tag, offset, Math.min(bytes.length, length));
+    }
+}
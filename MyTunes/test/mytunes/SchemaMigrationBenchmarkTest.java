@@ -0,0 +1,170 @@
+package mytunes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+// Times the library's filtered queries on a synthetic library before and after the migrations add
+// their indexes, and times the migrations themselves. The migrations use MySQL syntax, so this runs
+// only against the MySQL database given with -Dmytunes.test.mysql.url (plus .user and .password);
+// every MyTunes table in it is dropped. The size defaults to 100k songs (-Dmytunes.bench.songs).
+public class SchemaMigrationBenchmarkTest {
+    private static final int SONGS = Integer.getInteger("mytunes.bench.songs", 100_000);
+    private static final int PLAYLISTS = 100;
+    private static final int PLAYLIST_SIZE = 1000;
+    private static final int RUNS = 21;
+    private static final String[] TABLES = {"SongPlays", "PlaylistSongs", "Playlists", "WatchedFolders", "Songs", "schema_version"};
+
+    private static final String PLAYLIST_SQL = "SELECT Songs.* FROM Songs " +
+            "JOIN PlaylistSongs ON Songs.id = PlaylistSongs.song_id " +
+            "JOIN Playlists ON Playlists.id = PlaylistSongs.playlist_id " +
+            "WHERE Playlists.name = ?";
+    private static final String ARTIST_SQL = "SELECT * FROM Songs WHERE artist = ? ORDER BY album";
+    private static final String ALBUM_SQL = "SELECT * FROM Songs WHERE album = ?";
+    private static final String GENRE_SQL = "SELECT COUNT(*) FROM Songs WHERE genre = ?";
+
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws SQLException {
+        String url = System.getProperty("mytunes.test.mysql.url");
+        assumeNotNull(url);
+        pool = new ConnectionPool(url, System.getProperty("mytunes.test.mysql.user", "root"),
+                System.getProperty("mytunes.test.mysql.password", ""));
+        dropTables();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (pool != null) {
+            dropTables();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void queriesBeforeAndAfterMigration() throws SQLException {
+        createVersion1Tables();
+        fillLibrary();
+
+        System.out.printf("%,d songs, %d playlists of %d songs; median of %d runs%n", SONGS, PLAYLISTS, PLAYLIST_SIZE, RUNS);
+        double[] before = timeQueries();
+
+        long start = System.nanoTime();
+        SchemaMigrator migrator = new SchemaMigrator(pool);
+        migrator.migrate();
+        System.out.printf("Migrations 1-%d: %.0f ms%n", migrator.getLatestVersion(), (System.nanoTime() - start) / 1e6);
+        assertEquals(migrator.getLatestVersion(), migrator.getCurrentVersion());
+
+        double[] after = timeQueries();
+        String[] names = {"playlist by name", "songs by artist", "songs by album", "songs by genre"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-18s %8.2f ms before %8.2f ms after%n", names[i], before[i], after[i]);
+        }
+
+        // The migrated playlist query returns the same rows, now in playlist order
+        Database database = new Database(pool);
+        assertEquals(PLAYLIST_SIZE, database.getSongsFromPlaylist("Playlist 7").size());
+    }
+
+    // The tables as Database.createTables made them before SchemaMigrator existed
+    private void createVersion1Tables() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE Songs (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), artist VARCHAR(255), " +
+                    "album VARCHAR(255), year VARCHAR(10), genre VARCHAR(255), comment TEXT, file_path VARCHAR(255) UNIQUE)");
+            stmt.execute("CREATE TABLE Playlists (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255) UNIQUE NOT NULL)");
+            stmt.execute("CREATE TABLE PlaylistSongs (id INT AUTO_INCREMENT PRIMARY KEY, playlist_id INT, song_id INT, " +
+                    "FOREIGN KEY (playlist_id) REFERENCES Playlists(id) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (song_id) REFERENCES Songs(id) ON DELETE CASCADE)");
+        }
+    }
+
+    private void fillLibrary() throws SQLException {
+        Random random = new Random(1);
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement song = conn.prepareStatement(
+                    "INSERT INTO Songs(title, artist, album, year, genre, comment, file_path) VALUES(?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= SONGS; i++) {
+                    int artist = random.nextInt(SONGS / 20 + 1);
+                    song.setString(1, "Title " + i);
+                    song.setString(2, "Artist " + artist);
+                    song.setString(3, "Album " + artist + "-" + random.nextInt(5));
+                    song.setString(4, String.valueOf(1960 + random.nextInt(60)));
+                    song.setString(5, "Genre " + random.nextInt(40));
+                    song.setString(6, "No Comments");
+                    song.setString(7, "/music/" + i + ".mp3");
+                    song.addBatch();
+                    if (i % 1000 == 0) {
+                        song.executeBatch();
+                    }
+                }
+                song.executeBatch();
+            }
+            try (PreparedStatement playlist = conn.prepareStatement("INSERT INTO Playlists(name) VALUES(?)");
+                 PreparedStatement entry = conn.prepareStatement("INSERT INTO PlaylistSongs(playlist_id, song_id) VALUES(?, ?)")) {
+                for (int p = 1; p <= PLAYLISTS; p++) {
+                    playlist.setString(1, "Playlist " + p);
+                    playlist.executeUpdate();
+                    for (int i = 0; i < PLAYLIST_SIZE; i++) {
+                        entry.setInt(1, p);
+                        entry.setInt(2, (p * PLAYLIST_SIZE + i) % SONGS + 1);
+                        entry.addBatch();
+                    }
+                    entry.executeBatch();
+                }
+            }
+            conn.commit();
+        }
+    }
+
+    private double[] timeQueries() throws SQLException {
+        return new double[] {
+                medianMillis(PLAYLIST_SQL, i -> "Playlist " + (i % PLAYLISTS + 1)),
+                medianMillis(ARTIST_SQL, i -> "Artist " + i * 37 % (SONGS / 20 + 1)),
+                medianMillis(ALBUM_SQL, i -> "Album " + i * 37 % (SONGS / 20 + 1) + "-" + i % 5),
+                medianMillis(GENRE_SQL, i -> "Genre " + i % 40)
+        };
+    }
+
+    private interface Parameter {
+        String forRun(int run);
+    }
+
+    private double medianMillis(String sql, Parameter parameter) throws SQLException {
+        double[] millis = new double[RUNS];
+        try (Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int run = 0; run < RUNS; run++) {
+                pstmt.setString(1, parameter.forRun(run));
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        rs.getString(1);
+                    }
+                }
+                millis[run] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        Arrays.sort(millis);
+        return millis[RUNS / 2];
+    }
+
+    private void dropTables() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            for (String table : TABLES) {
+                stmt.execute("DROP TABLE IF EXISTS " + table);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package mytunes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+// SearchIndex against a naive stream filter with the same rules (every query word must start some
+// word of the song's fields), over a synthetic library that then has songs removed, added and edited
+// through the LibraryCache. Both must return the same songs in the same order for every query.
+// -Dmytunes.bench.songs sets the library size (default 100000).
+public class SearchIndexBenchmarkTest {
+    private static final int SONGS = Integer.getInteger("mytunes.bench.songs", 100_000);
+    private static final int QUERIES = 40; // The stream filter takes a few hundred ms per query at 100k songs
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "sa", "to", "vi", "zé", "bo", "da", "fe", "gü", "ha", "jo"};
+
+    private final Random random = new Random(7);
+    private final List<Song> library = new ArrayList<>();
+    private LibraryCache libraryCache;
+    private SearchIndex searchIndex;
+
+    @Before
+    public void createLibrary() {
+        for (int i = 1; i <= SONGS; i++) {
+            Song song = new Song(i, phrase(3), phrase(2), phrase(2), String.valueOf(1960 + random.nextInt(60)),
+                    phrase(1), random.nextInt(10) == 0 ? phrase(4) : "No Comments", "/music/" + i + ".mp3");
+            library.add(song);
+        }
+        int[] nextId = {SONGS};
+        Database database = new Database(new ConnectionPool("jdbc:none:benchmark", "", "")) {
+            @Override
+            public void createTables() {
+            }
+
+            @Override
+            public void forEachSong(Consumer<Song> action) {
+                library.forEach(action);
+            }
+
+            @Override
+            public List<Integer> addSongs(Collection<Song> songs) {
+                List<Integer> ids = new ArrayList<>();
+                for (Song song : songs) {
+                    song.setId(++nextId[0]);
+                    ids.add(song.getId());
+                }
+                return ids;
+            }
+
+            @Override
+            public boolean deleteSongs(Collection<Song> songs) {
+                return true;
+            }
+
+            @Override
+            public boolean updateSong(Song song) {
+                return true;
+            }
+        };
+        libraryCache = new LibraryCache(database);
+        long start = System.nanoTime();
+        searchIndex = new SearchIndex(libraryCache);
+        System.out.printf("Indexed %,d songs in %.0f ms%n", SONGS, (System.nanoTime() - start) / 1e6);
+        libraryCache.addListener(searchIndex);
+    }
+
+    @Test
+    public void indexMatchesNaiveFilter() {
+        compare("after indexing");
+
+        List<Song> songs = libraryCache.getSongs();
+        List<Song> removed = new ArrayList<>();
+        for (int i = 0; i < songs.size(); i += 3) {
+            removed.add(songs.get(i));
+        }
+        libraryCache.removeSongs(removed);
+        List<Song> added = new ArrayList<>();
+        for (int i = 0; i < SONGS / 10; i++) {
+            added.add(new Song(0, phrase(3), phrase(2), phrase(2), "2001", phrase(1), "No Comments", "/new/" + i + ".mp3"));
+        }
+        libraryCache.addSongs(added);
+        songs = libraryCache.getSongs();
+        for (int i = 0; i < 1000; i++) {
+            Song edited = songs.get(random.nextInt(songs.size()));
+            edited = edited.copy(edited.getFilePath());
+            edited.setComment(phrase(2));
+            libraryCache.updateSong(edited);
+        }
+        compare("after removing a third, adding a tenth and editing 1000");
+    }
+
+    private void compare(String when) {
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            // Whole words, prefixes of one or two syllables, and two-word queries
+            queries.add(random.nextInt(3) == 0 ? phrase(2) : phrase(1).substring(0, 1 + random.nextInt(3)));
+        }
+        List<Song> songs = libraryCache.getSongs();
+
+        long start = System.nanoTime();
+        List<List<Song>> indexed = new ArrayList<>();
+        for (String query : queries) {
+            indexed.add(searchIndex.search(query));
+        }
+        double indexMillis = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+        start = System.nanoTime();
+        List<List<Song>> filtered = new ArrayList<>();
+        for (String query : queries) {
+            List<String> words = SearchIndex.tokenize(query);
+            filtered.add(songs.stream().filter(song -> matches(song, words)).collect(Collectors.toList()));
+        }
+        double filterMillis = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+        long results = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            assertEquals(queries.get(i), filtered.get(i), indexed.get(i));
+            results += indexed.get(i).size();
+        }
+        System.out.printf("%s: %,d songs, %,d results per query; index %.3f ms, stream filter %.3f ms per query%n",
+                when, songs.size(), results / QUERIES, indexMillis, filterMillis);
+    }
+
+    private static boolean matches(Song song, List<String> queryWords) {
+        List<String> words = new ArrayList<>();
+        for (String field : new String[]{song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre(), song.getComment()}) {
+            words.addAll(SearchIndex.tokenize(field));
+        }
+        for (String queryWord : queryWords) {
+            if (words.stream().noneMatch(word -> word.startsWith(queryWord))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String phrase(int words) {
+        StringBuilder phrase = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                phrase.append(' ');
+            }
+            int syllables = 2 + random.nextInt(2);
+            for (int s = 0; s < syllables; s++) {
+                phrase.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        return phrase.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package mytunes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// MP3 files for tests, written without an encoder: MPEG-1 Layer III, 128 kbps, 44.1 kHz, mono frames
+// whose side info and main data are all zero, so every frame decodes to silence
+final class SilentMp3 {
+    static final int FRAME_BYTES = 144 * 128000 / 44100; // 417
+    static final int SAMPLES_PER_FRAME = 1152;
+
+    private SilentMp3() {
+    }
+
+    static byte[] frame() {
+        byte[] frame = new byte[FRAME_BYTES];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        frame[3] = (byte) 0xC4;
+        return frame;
+    }
+
+    static void write(File file, int frames) throws IOException {
+        byte[] frame = frame();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < frames; i++) {
+                out.write(frame);
+            }
+        }
+    }
+
+    static File create(String prefix, int frames) throws IOException {
+        File file = File.createTempFile(prefix, ".mp3");
+        write(file, frames);
+        return file;
+    }
+}
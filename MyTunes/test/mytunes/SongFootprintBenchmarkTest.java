@@ -0,0 +1,104 @@
+package mytunes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Retained heap per Song, whose artist, album, year and genre are dictionary-encoded, against the same
+// fields held as plain Strings, as Song held them before. Every string is a fresh copy, as in rows
+// read through JDBC, and tags repeat as they do in a real library: an artist has about twenty songs,
+// an album ten. -Dmytunes.bench.songs sets the library size (default 100000; 500000 in the request).
+public class SongFootprintBenchmarkTest {
+    private static final int SONGS = Integer.getInteger("mytunes.bench.songs", 100_000);
+
+    // Song's fields before dictionary encoding
+    private static class PlainSong {
+        final int id;
+        final String title;
+        final String artist;
+        final String album;
+        final String year;
+        final String genre;
+        final String comment;
+        final String filePath;
+        int durationMs;
+        int bitrateKbps;
+        int sampleRate;
+        long fileSize;
+        long fileModified;
+        String audioHash;
+
+        PlainSong(int id, String title, String artist, String album, String year, String genre, String comment, String filePath) {
+            this.id = id;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.year = year;
+            this.genre = genre;
+            this.comment = comment;
+            this.filePath = filePath;
+        }
+    }
+
+    @Test
+    public void encodedSongsRetainLessThanPlainOnes() {
+        long plainBytes = retainedBytes(i -> {
+            String[] row = row(i);
+            return new PlainSong(i, row[0], row[1], row[2], row[3], row[4], row[5], row[6]);
+        });
+        long encodedBytes = retainedBytes(i -> {
+            String[] row = row(i);
+            return new Song(i, row[0], row[1], row[2], row[3], row[4], row[5], row[6]);
+        });
+        System.out.printf("%,d songs: plain Strings %.1f MB (%d B/song), dictionary-encoded %.1f MB (%d B/song)%n",
+                SONGS, plainBytes / 1048576.0, plainBytes / SONGS, encodedBytes / 1048576.0, encodedBytes / SONGS);
+        assertTrue(encodedBytes < plainBytes);
+
+        Song song = new Song(1, "t", row(42)[1], row(42)[2], row(42)[3], row(42)[4], "c", "p");
+        assertEquals(row(42)[1], song.getArtist());
+        assertEquals(row(42)[2], song.getAlbum());
+    }
+
+    // A fresh copy of every value of row i
+    private static String[] row(int i) {
+        Random random = new Random(i);
+        int album = i / 10;
+        return new String[] {
+                "Footprint Title " + i,
+                "Footprint Artist " + album / 2,
+                "Footprint Album " + album,
+                String.valueOf(1960 + album % 60),
+                "Footprint Genre " + random.nextInt(40),
+                random.nextInt(20) == 0 ? "Footprint comment " + i : new String("No Comments"),
+                "/music/Footprint Artist " + album / 2 + "/Footprint Album " + album + "/" + i + ".mp3"
+        };
+    }
+
+    // Heap still in use while SONGS objects made by create are held, including any dictionary entries they added
+    private static long retainedBytes(IntFunction<Object> create) {
+        long before = usedHeapAfterGc();
+        List<Object> songs = new ArrayList<>(SONGS);
+        for (int i = 0; i < SONGS; i++) {
+            songs.add(create.apply(i));
+        }
+        long after = usedHeapAfterGc();
+        assertEquals(SONGS, songs.size()); // Keeps the list reachable until measured
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}